@@ -1,6 +1,13 @@
 import React, { useState } from 'react';
 import axios from 'axios';
 
+const JOB_POLL_INTERVAL_MS = 1000;
+// Give up on a job after this many polls (about five minutes)
+const JOB_POLL_MAX_ATTEMPTS = 300;
+const FINISHED_STATES = ['COMPLETED', 'COMPLETED_WITH_ERRORS', 'FAILED'];
+
+const sleep = (ms) => new Promise((resolve) => setTimeout(resolve, ms));
+
 const AccountLinking = () => {
   // Manager ID is now read from application.properties
   const [clientId, setClientId] = useState('');
@@ -14,20 +21,43 @@ const AccountLinking = () => {
     setResult(null);
 
     try {
-      let response;
-      if (operation === 'send') {
-        response = await axios.post(
-          `http://localhost:4000/api/account-links/send-invitation/${clientId}`
-        );
-      } else {
-        response = await axios.post(
-          `http://localhost:4000/api/account-links/accept-invitation/${clientId}`
+      // Link operations are queued as jobs, so poll the job until it finishes
+      const path = operation === 'send' ? 'send-invitation' : 'accept-invitation';
+      const submitted = await axios.post(
+        `http://localhost:4000/api/account-links/${path}/${clientId}`
+      );
+
+      let job = submitted.data;
+      let attempts = 0;
+      while (!FINISHED_STATES.includes(job.state)) {
+        if (attempts >= JOB_POLL_MAX_ATTEMPTS) {
+          setResult({
+            success: false,
+            error: `Job ${job.jobId} did not finish after ${attempts} status checks; it may still be running on the server`
+          });
+          return;
+        }
+        attempts++;
+        await sleep(JOB_POLL_INTERVAL_MS);
+        const response = await axios.get(
+          `http://localhost:4000/api/account-links/jobs/${job.jobId}`,
+          { validateStatus: () => true }
         );
+        if (response.status < 200 || response.status >= 300) {
+          setResult({
+            success: false,
+            error: response.status === 404
+              ? `Job ${job.jobId} is no longer known to the server`
+              : response.data || `Checking job ${job.jobId} failed with status ${response.status}`
+          });
+          return;
+        }
+        job = response.data;
       }
 
       setResult({
-        success: true,
-        data: response.data
+        success: job.state === 'COMPLETED',
+        data: job
       });
     } catch (error) {
       console.error('Error:', error);
@@ -108,7 +138,7 @@ const AccountLinking = () => {
         <div style={{ marginTop: '20px', padding: '15px', backgroundColor: result.success ? '#e6f7e6' : '#ffebee', borderRadius: '4px' }}>
           <h3>{result.success ? 'Success' : 'Error'}</h3>
           <pre style={{ whiteSpace: 'pre-wrap', wordBreak: 'break-word' }}>
-            {JSON.stringify(result.success ? result.data : result.error, null, 2)}
+            {JSON.stringify(result.data || result.error, null, 2)}
           </pre>
         </div>
       )}
@@ -14,6 +14,7 @@ const ImpressionsList = ({ impressions, customerId }) => {
       <table style={{ width: '100%', borderCollapse: 'collapse' }}>
         <thead>
           <tr>
+            <th style={tableHeaderStyle}>Country</th>
             <th style={tableHeaderStyle}>Country Criterion ID</th>
             <th style={tableHeaderStyle}>Impressions</th>
           </tr>
@@ -21,6 +22,11 @@ const ImpressionsList = ({ impressions, customerId }) => {
         <tbody>
           {impressions.map((impression) => (
             <tr key={impression.countryCriterionId}>
+              <td style={tableCellStyle}>
+                {impression.countryName
+                  ? `${impression.countryName} (${impression.countryCode})`
+                  : 'Unknown'}
+              </td>
               <td style={tableCellStyle}>{impression.countryCriterionId}</td>
               <td style={tableCellStyle}>{impression.impressions.toLocaleString()}</td>
             </tr>
@@ -1,75 +1,194 @@
 package org.adthena.adwordsmcc.controller;
 
-import org.adthena.adwordsmcc.model.LinkResponse;
-import org.adthena.adwordsmcc.service.AccountLinkService;
+import org.adthena.adwordsmcc.service.LinkJobService;
+import org.adthena.adwordsmcc.service.LinkJobService.Operation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controller for account linking operations.
+ * Link operations are queued as jobs and answered with 202 and the job's status; the job's
+ * results are read from the job status endpoint once it has finished.
  */
 @RestController
 @RequestMapping("/api/account-links")
 public class AccountLinkController {
 
-    private final AccountLinkService accountLinkService;
+    private final LinkJobService linkJobService;
 
     @Autowired
-    public AccountLinkController(AccountLinkService accountLinkService) {
-        this.accountLinkService = accountLinkService;
+    public AccountLinkController(LinkJobService linkJobService) {
+        this.linkJobService = linkJobService;
     }
 
     /**
-     * Sends an invitation from the manager account to a client account.
+     * Queues an invitation from the manager account to a client account.
      *
      * @param clientCustomerId The ID of the client account
-     * @return LinkResponse containing the result of the operation
+     * @param maxAttempts      The attempt limit for this job; omit for the configured default
+     * @return The queued job's status
      */
     @PostMapping("/send-invitation/{clientCustomerId}")
-    public ResponseEntity<LinkResponse> sendInvitation(
-        @PathVariable long clientCustomerId) {
-        try {
-            LinkResponse response = accountLinkService.sendInvitation(clientCustomerId);
+    public ResponseEntity<Map<String, Object>> sendInvitation(
+        @PathVariable String clientCustomerId,
+        @RequestParam(name = "maxAttempts", required = false) Integer maxAttempts) {
+        return submit(Operation.SEND_INVITATION, List.of(clientCustomerId), maxAttempts);
+    }
 
-            if (response.isSuccess()) {
-                return ResponseEntity.ok(response);
-            } else {
-                return ResponseEntity.badRequest().body(response);
-            }
+    /**
+     * Queues invitations from the manager account to a list of client accounts.
+     *
+     * @param clientCustomerIds The client account IDs, with or without dashes
+     * @param maxAttempts       The attempt limit for this job; omit for the configured default
+     * @return The queued job's status
+     */
+    @PostMapping(value = "/send-invitations", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> sendInvitations(
+        @RequestBody List<String> clientCustomerIds,
+        @RequestParam(name = "maxAttempts", required = false) Integer maxAttempts) {
+        return submit(Operation.SEND_INVITATION, clientCustomerIds, maxAttempts);
+    }
+
+    /**
+     * Queues invitations from the manager account to the client accounts in an uploaded CSV file.
+     *
+     * @param file        CSV with one client account ID in the first column of each row
+     * @param maxAttempts The attempt limit for this job; omit for the configured default
+     * @return The queued job's status
+     */
+    @PostMapping(value = "/send-invitations", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> sendInvitationsFromCsv(
+        @RequestParam("file") MultipartFile file,
+        @RequestParam(name = "maxAttempts", required = false) Integer maxAttempts) {
+        try {
+            return submit(Operation.SEND_INVITATION, readClientIds(file), maxAttempts);
         } catch (IOException e) {
             e.printStackTrace();
-            return ResponseEntity.status(500).body(
-                new LinkResponse(false, "Error sending invitation: " + e.getMessage(), null));
+            return ResponseEntity.status(500).build();
         }
     }
 
     /**
-     * Accepts an invitation from a client account to the manager account.
+     * Queues acceptance of the manager's invitation by a client account.
      *
      * @param clientCustomerId The ID of the client account
-     * @return LinkResponse containing the result of the operation
+     * @param maxAttempts      The attempt limit for this job; omit for the configured default
+     * @return The queued job's status
      */
     @PostMapping("/accept-invitation/{clientCustomerId}")
-    public ResponseEntity<LinkResponse> acceptInvitation(
-        @PathVariable long clientCustomerId) {
-        try {
-            LinkResponse response = accountLinkService.acceptInvitation(clientCustomerId);
+    public ResponseEntity<Map<String, Object>> acceptInvitation(
+        @PathVariable String clientCustomerId,
+        @RequestParam(name = "maxAttempts", required = false) Integer maxAttempts) {
+        return submit(Operation.ACCEPT_INVITATION, List.of(clientCustomerId), maxAttempts);
+    }
 
-            if (response.isSuccess()) {
-                return ResponseEntity.ok(response);
-            } else {
-                return ResponseEntity.badRequest().body(response);
-            }
+    /**
+     * Queues acceptance of pending invitations from the manager account for a list of client accounts.
+     *
+     * @param clientCustomerIds The client account IDs, with or without dashes
+     * @param maxAttempts       The attempt limit for this job; omit for the configured default
+     * @return The queued job's status
+     */
+    @PostMapping(value = "/accept-invitations", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> acceptInvitations(
+        @RequestBody List<String> clientCustomerIds,
+        @RequestParam(name = "maxAttempts", required = false) Integer maxAttempts) {
+        return submit(Operation.ACCEPT_INVITATION, clientCustomerIds, maxAttempts);
+    }
+
+    /**
+     * Queues acceptance of pending invitations from the manager account for the client accounts
+     * in an uploaded CSV file.
+     *
+     * @param file        CSV with one client account ID in the first column of each row
+     * @param maxAttempts The attempt limit for this job; omit for the configured default
+     * @return The queued job's status
+     */
+    @PostMapping(value = "/accept-invitations", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> acceptInvitationsFromCsv(
+        @RequestParam("file") MultipartFile file,
+        @RequestParam(name = "maxAttempts", required = false) Integer maxAttempts) {
+        try {
+            return submit(Operation.ACCEPT_INVITATION, readClientIds(file), maxAttempts);
         } catch (IOException e) {
             e.printStackTrace();
-            return ResponseEntity.status(500).body(
-                new LinkResponse(false, "Error accepting invitation: " + e.getMessage(), null));
+            return ResponseEntity.status(500).build();
         }
     }
+
+    /**
+     * Gets a link job's progress, and its per-client results once it has finished.
+     *
+     * @param jobId The ID returned when the job was queued
+     * @return The job's status
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getJobStatus(@PathVariable String jobId) {
+        Map<String, Object> status = linkJobService.getStatus(jobId);
+        return status != null ? ResponseEntity.ok(status) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Gets the status of every retained link job, newest first.
+     *
+     * @return List of job statuses
+     */
+    @GetMapping("/jobs")
+    public ResponseEntity<List<Map<String, Object>>> getAllJobStatuses() {
+        return ResponseEntity.ok(linkJobService.getAllStatuses());
+    }
+
+    private ResponseEntity<Map<String, Object>> submit(Operation operation, List<String> clientCustomerIds, Integer maxAttempts) {
+        try {
+            return ResponseEntity.accepted().body(linkJobService.submit(operation, clientCustomerIds, maxAttempts));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(503).body(Map.of("error", "Too many link jobs queued; try again later"));
+        }
+    }
+
+    /**
+     * Reads the first column of each CSV row. A first row without any digits is taken to be a
+     * header and skipped, as are blank rows.
+     */
+    private List<String> readClientIds(MultipartFile file) throws IOException {
+        List<String> clientCustomerIds = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            boolean firstRow = true;
+            while ((line = reader.readLine()) != null) {
+                String firstColumn = line.split(",", 2)[0].replace("\"", "").replace("\uFEFF", "").trim();
+                if (firstRow && !firstColumn.matches(".*\\d.*")) {
+                    firstRow = false;
+                    continue;
+                }
+                firstRow = false;
+                if (!firstColumn.isEmpty()) {
+                    clientCustomerIds.add(firstColumn);
+                }
+            }
+        }
+
+        return clientCustomerIds;
+    }
 }
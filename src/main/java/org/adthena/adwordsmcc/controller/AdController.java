@@ -1,17 +1,27 @@
 package org.adthena.adwordsmcc.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import org.adthena.adwordsmcc.model.AdInfo;
+import org.adthena.adwordsmcc.model.AdPage;
 import org.adthena.adwordsmcc.service.AdService;
+import org.adthena.adwordsmcc.service.AdSyncService;
+import org.adthena.adwordsmcc.util.FieldSelection;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Simple controller for ad information.
@@ -20,29 +30,164 @@ import java.util.List;
 @RequestMapping("/api/ads")
 public class AdController {
 
+    private static final int MAX_PAGE_SIZE = 10000;
+    private static final int NDJSON_FLUSH_INTERVAL = 500;
+
     private final AdService adService;
+    private final AdSyncService adSyncService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public AdController(AdService adService) {
+    public AdController(AdService adService, AdSyncService adSyncService, ObjectMapper objectMapper) {
         this.adService = adService;
+        this.adSyncService = adSyncService;
+        this.objectMapper = objectMapper;
     }
 
     /**
      * Gets enabled ads with their final URLs for a specific customer account.
      *
      * @param customerId The ID of the Google Ads customer account
+     * @param fields     Comma-separated AdInfo fields to return; omit for all
      * @return List of AdInfo objects
      */
     @GetMapping("/final-urls/{customerId}")
-    public ResponseEntity<List<AdInfo>> getEnabledAdsWithFinalUrls(@PathVariable String customerId) {
+    public ResponseEntity<List<AdInfo>> getEnabledAdsWithFinalUrls(
+            @PathVariable String customerId,
+            @RequestParam(name = "fields", required = false) String fields) {
         try {
             // Get the ad information using the Ad service
-            List<AdInfo> adInfoList = adService.getEnabledAdsWithFinalUrls(customerId);
+            List<AdInfo> adInfoList = adService.getEnabledAdsWithFinalUrls(customerId, FieldSelection.parse(fields, AdService.AD_FIELDS));
+
+            return ResponseEntity.ok(adInfoList);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    /**
+     * Streams enabled ads with their final URLs as newline-delimited JSON, one ad per line,
+     * writing each ad as soon as it is read from the API.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @param fields     Comma-separated AdInfo fields to return; omit for all
+     * @param response   The response the ads are written to
+     */
+    @GetMapping(value = "/final-urls/{customerId}/stream", produces = "application/x-ndjson")
+    public void streamEnabledAdsWithFinalUrls(
+            @PathVariable String customerId,
+            @RequestParam(name = "fields", required = false) String fields,
+            HttpServletResponse response) throws IOException {
+        FieldSelection selection;
+        try {
+            selection = FieldSelection.parse(fields, AdService.AD_FIELDS);
+        } catch (IllegalArgumentException e) {
+            response.sendError(400, e.getMessage());
+            return;
+        }
+
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            // Lines are separated explicitly instead of by the default space between root values
+            generator.setRootValueSeparator(null);
+            long[] written = new long[1];
+            adService.streamEnabledAdsWithFinalUrls(customerId, null, selection, adInfo -> {
+                generator.writeObject(adInfo);
+                generator.writeRaw('\n');
+                if (++written[0] % NDJSON_FLUSH_INTERVAL == 0) {
+                    generator.flush();
+                }
+            });
+        } catch (IOException e) {
+            // Headers may already be sent, so the stream is cut short rather than answered with an error status
+            e.printStackTrace();
+            if (!response.isCommitted()) {
+                response.setStatus(500);
+            }
+        }
+    }
+
+    /**
+     * Gets one page of enabled ads with their final URLs, ordered by ad ID.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @param cursor     The cursor from the previous page; omit for the first page
+     * @param pageSize   The maximum number of ads to read for the page
+     * @param fields     Comma-separated AdInfo fields to return; omit for all
+     * @return The page of ads and the cursor for the next page
+     */
+    @GetMapping("/final-urls/{customerId}/page")
+    public ResponseEntity<AdPage> getEnabledAdsPage(
+            @PathVariable String customerId,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "pageSize", defaultValue = "500") int pageSize,
+            @RequestParam(name = "fields", required = false) String fields) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        try {
+            AdPage page = adService.getEnabledAdsPage(customerId, cursor, pageSize, FieldSelection.parse(fields, AdService.AD_FIELDS));
+
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    /**
+     * Gets enabled ads with their final URLs from a locally synced copy, fetching only the ads
+     * that changed since the previous sync.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @param fields     Comma-separated AdInfo fields to return; omit for all
+     * @return List of AdInfo objects
+     */
+    @GetMapping("/final-urls/{customerId}/synced")
+    public ResponseEntity<List<AdInfo>> getSyncedAdsWithFinalUrls(
+            @PathVariable String customerId,
+            @RequestParam(name = "fields", required = false) String fields) {
+        try {
+            List<AdInfo> adInfoList = adSyncService.getEnabledAdsWithFinalUrls(customerId, FieldSelection.parse(fields, AdService.AD_FIELDS));
 
             return ResponseEntity.ok(adInfoList);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (IOException e) {
             e.printStackTrace();
             return ResponseEntity.status(500).build();
         }
     }
+
+    /**
+     * Gets the watermark and counters of an account's synced copy.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @return Map of sync state, or 404 if the account has not been synced
+     */
+    @GetMapping("/sync/{customerId}")
+    public ResponseEntity<Map<String, Object>> getSyncStatus(@PathVariable String customerId) {
+        Map<String, Object> status = adSyncService.getSyncStatus(customerId);
+        return status != null ? ResponseEntity.ok(status) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Drops an account's synced copy so the next request performs a full scan.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @return Empty response
+     */
+    @DeleteMapping("/sync/{customerId}")
+    public ResponseEntity<Void> resetSync(@PathVariable String customerId) {
+        adSyncService.reset(customerId);
+        return ResponseEntity.noContent().build();
+    }
 }
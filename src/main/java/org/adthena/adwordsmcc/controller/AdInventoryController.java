@@ -0,0 +1,85 @@
+package org.adthena.adwordsmcc.controller;
+
+import org.adthena.adwordsmcc.service.AdInventoryCrawler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Controller for crawling the ad inventory of every account under a manager.
+ */
+@RestController
+@RequestMapping("/api/ad-inventory/crawls")
+public class AdInventoryController {
+
+    private final AdInventoryCrawler adInventoryCrawler;
+
+    @Autowired
+    public AdInventoryController(AdInventoryCrawler adInventoryCrawler) {
+        this.adInventoryCrawler = adInventoryCrawler;
+    }
+
+    /**
+     * Starts a crawl, or resumes it from its last checkpoint.
+     *
+     * @param managerId The manager whose client accounts are crawled
+     * @param restart   Whether to discard earlier progress and start from scratch
+     * @return The crawl's status
+     */
+    @PostMapping("/{managerId}")
+    public ResponseEntity<Map<String, Object>> startCrawl(
+            @PathVariable String managerId,
+            @RequestParam(name = "restart", defaultValue = "false") boolean restart) {
+        try {
+            return ResponseEntity.accepted().body(adInventoryCrawler.start(managerId, restart));
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    /**
+     * Stops a running crawl. Finished accounts stay checkpointed.
+     *
+     * @param managerId The manager whose crawl is stopped
+     * @return The crawl's status
+     */
+    @PostMapping("/{managerId}/stop")
+    public ResponseEntity<Map<String, Object>> stopCrawl(@PathVariable String managerId) {
+        Map<String, Object> status = adInventoryCrawler.stop(managerId);
+        return status != null ? ResponseEntity.ok(status) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Gets progress, throughput and error counters for a crawl.
+     *
+     * @param managerId The manager whose crawl is reported
+     * @return The crawl's status
+     */
+    @GetMapping("/{managerId}")
+    public ResponseEntity<Map<String, Object>> getCrawlStatus(@PathVariable String managerId) {
+        Map<String, Object> status = adInventoryCrawler.getStatus(managerId);
+        return status != null ? ResponseEntity.ok(status) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Gets the status of every crawl started since the application started.
+     *
+     * @return List of crawl statuses
+     */
+    @GetMapping
+    public ResponseEntity<List<Map<String, Object>>> getAllCrawlStatuses() {
+        return ResponseEntity.ok(adInventoryCrawler.getAllStatuses());
+    }
+}
@@ -3,11 +3,13 @@ package org.adthena.adwordsmcc.controller;
 import org.adthena.adwordsmcc.model.CustomerHierarchyNode;
 import org.adthena.adwordsmcc.model.GoogleAdsCustomer;
 import org.adthena.adwordsmcc.service.CustomerService;
+import org.adthena.adwordsmcc.util.FieldSelection;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
@@ -30,15 +32,20 @@ public class CustomerController {
     /**
      * Lists all accessible Google Ads customers for the authenticated user.
      *
+     * @param fields Comma-separated GoogleAdsCustomer fields to return; omit for all
      * @return List of Google Ads customers
      */
     @GetMapping
-    public ResponseEntity<List<GoogleAdsCustomer>> listAccessibleCustomers() {
+    public ResponseEntity<List<GoogleAdsCustomer>> listAccessibleCustomers(
+            @RequestParam(name = "fields", required = false) String fields) {
         try {
             // Get the customers using the Customer service
-            List<GoogleAdsCustomer> customers = customerService.listAccessibleCustomers();
+            List<GoogleAdsCustomer> customers = customerService.listAccessibleCustomers(
+                FieldSelection.parse(fields, CustomerService.CUSTOMER_FIELDS));
 
             return ResponseEntity.ok(customers);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (IOException e) {
             e.printStackTrace();
             return ResponseEntity.status(500).build();
@@ -48,13 +55,34 @@ public class CustomerController {
     /**
      * Gets the hierarchical structure of Google Ads customer accounts.
      *
+     * @param fields Comma-separated CustomerHierarchyNode fields to return; omit for all
      * @return List of CustomerHierarchyNode representing the account hierarchy
      */
     @GetMapping("/hierarchy")
-    public ResponseEntity<List<CustomerHierarchyNode>> getCustomerHierarchy() {
+    public ResponseEntity<List<CustomerHierarchyNode>> getCustomerHierarchy(
+            @RequestParam(name = "fields", required = false) String fields) {
         try {
-            List<CustomerHierarchyNode> hierarchy = customerService.getCustomerHierarchy();
+            List<CustomerHierarchyNode> hierarchy = customerService.getCustomerHierarchy(
+                FieldSelection.parse(fields, CustomerService.HIERARCHY_FIELDS));
             return ResponseEntity.ok(hierarchy);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    /**
+     * Drops the cached hierarchy for the authenticated user so the next request rebuilds it.
+     *
+     * @return Empty response
+     */
+    @DeleteMapping("/hierarchy/cache")
+    public ResponseEntity<Void> invalidateCustomerHierarchy() {
+        try {
+            customerService.invalidateCustomerHierarchy();
+            return ResponseEntity.noContent().build();
         } catch (IOException e) {
             e.printStackTrace();
             return ResponseEntity.status(500).build();
@@ -0,0 +1,60 @@
+package org.adthena.adwordsmcc.controller;
+
+import org.adthena.adwordsmcc.service.GaqlQueryExecutor;
+import org.adthena.adwordsmcc.service.GoogleAdsClientRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Controller exposing runtime counters for shared backend resources.
+ */
+@RestController
+@RequestMapping("/api/diagnostics")
+public class DiagnosticsController {
+
+    private final GoogleAdsClientRegistry clientRegistry;
+    private final GaqlQueryExecutor queryExecutor;
+
+    @Autowired
+    public DiagnosticsController(GoogleAdsClientRegistry clientRegistry, GaqlQueryExecutor queryExecutor) {
+        this.clientRegistry = clientRegistry;
+        this.queryExecutor = queryExecutor;
+    }
+
+    /**
+     * Gets creation and reuse counters for Google Ads clients and gRPC channels.
+     *
+     * @return Map of counter names to values
+     */
+    @GetMapping("/google-ads-clients")
+    public ResponseEntity<Map<String, Object>> getGoogleAdsClientStats() {
+        return ResponseEntity.ok(clientRegistry.getStats());
+    }
+
+    /**
+     * Gets size, eviction and per-resource hit/miss counters for the shared GAQL result cache.
+     *
+     * @return Map of counter names to values
+     */
+    @GetMapping("/gaql-cache")
+    public ResponseEntity<Map<String, Object>> getGaqlCacheStats() {
+        return ResponseEntity.ok(queryExecutor.getStats());
+    }
+
+    /**
+     * Drops every cached GAQL result.
+     *
+     * @return No content
+     */
+    @DeleteMapping("/gaql-cache")
+    public ResponseEntity<Void> clearGaqlCache() {
+        queryExecutor.invalidateAll();
+        return ResponseEntity.noContent().build();
+    }
+}
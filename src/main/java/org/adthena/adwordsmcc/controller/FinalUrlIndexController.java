@@ -0,0 +1,109 @@
+package org.adthena.adwordsmcc.controller;
+
+import org.adthena.adwordsmcc.model.FinalUrlMatches;
+import org.adthena.adwordsmcc.service.FinalUrlIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Controller for looking up ads by final URL across every account under a manager.
+ */
+@RestController
+@RequestMapping("/api/final-url-index")
+public class FinalUrlIndexController {
+
+    private static final int MAX_LIMIT = 100000;
+
+    private final FinalUrlIndex finalUrlIndex;
+
+    @Autowired
+    public FinalUrlIndexController(FinalUrlIndex finalUrlIndex) {
+        this.finalUrlIndex = finalUrlIndex;
+    }
+
+    /**
+     * Finds ads whose final URL is exactly the given URL.
+     *
+     * @param url   The final URL
+     * @param limit The maximum number of references to return
+     * @return The matching references and the total match count
+     */
+    @GetMapping("/url")
+    public ResponseEntity<FinalUrlMatches> findByUrl(
+            @RequestParam String url,
+            @RequestParam(name = "limit", defaultValue = "1000") int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(finalUrlIndex.findByUrl(url, limit));
+    }
+
+    /**
+     * Finds ads whose final URL starts with the given prefix.
+     *
+     * @param prefix The URL prefix, including the scheme
+     * @param limit  The maximum number of references to return
+     * @return The matching references and the total match count
+     */
+    @GetMapping("/prefix")
+    public ResponseEntity<FinalUrlMatches> findByPrefix(
+            @RequestParam String prefix,
+            @RequestParam(name = "limit", defaultValue = "1000") int limit) {
+        if (prefix.isEmpty() || limit < 1 || limit > MAX_LIMIT) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(finalUrlIndex.findByPrefix(prefix, limit));
+    }
+
+    /**
+     * Finds ads whose final URL is on the given domain or one of its subdomains.
+     *
+     * @param domain The domain, e.g. example.com
+     * @param limit  The maximum number of references to return
+     * @return The matching references and the total match count
+     */
+    @GetMapping("/domain")
+    public ResponseEntity<FinalUrlMatches> findByDomain(
+            @RequestParam String domain,
+            @RequestParam(name = "limit", defaultValue = "1000") int limit) {
+        if (domain.isBlank() || limit < 1 || limit > MAX_LIMIT) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(finalUrlIndex.findByDomain(domain, limit));
+    }
+
+    /**
+     * Gets the size and age of the current index.
+     *
+     * @return Map of index statistics
+     */
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        return ResponseEntity.ok(finalUrlIndex.getStatus());
+    }
+
+    /**
+     * Starts a background rebuild of the index.
+     *
+     * @param managerId The manager to crawl; defaults to the configured manager
+     * @return 202 if the rebuild started, 409 if one is already running
+     */
+    @PostMapping("/rebuild")
+    public ResponseEntity<Void> rebuild(@RequestParam(name = "managerId", required = false) String managerId) {
+        try {
+            if (!finalUrlIndex.requestRebuild(managerId)) {
+                return ResponseEntity.status(409).build();
+            }
+            return ResponseEntity.accepted().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
@@ -1,16 +1,21 @@
 package org.adthena.adwordsmcc.controller;
 
 import org.adthena.adwordsmcc.model.CountryImpression;
+import org.adthena.adwordsmcc.model.CountryImpressionColumns;
+import org.adthena.adwordsmcc.model.ImpressionRollup;
 import org.adthena.adwordsmcc.service.ImpressionService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
+import java.time.LocalDate;
 import java.util.List;
 
 /**
@@ -28,18 +33,55 @@ public class ImpressionController {
     }
 
     /**
-     * Gets impressions by country for the last 7 days.
+     * Gets impressions by country for a date range, the last 7 days by default.
      *
      * @param customerId The ID of the Google Ads customer account
-     * @return List of CountryImpression objects
+     * @param from       The first day of the range, inclusive
+     * @param to         The last day of the range, inclusive
+     * @param format     "columnar" for parallel ID and impression arrays; a list of CountryImpression objects otherwise
+     * @return List of CountryImpression objects, or CountryImpressionColumns when requested; 400 if the
+     *         range is reversed, too long or ends in the future
      */
     @GetMapping("/by-country/{customerId}")
-    public ResponseEntity<List<CountryImpression>> getImpressionsByCountry(@PathVariable String customerId) {
+    public ResponseEntity<?> getImpressionsByCountry(
+            @PathVariable String customerId,
+            @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(name = "format", defaultValue = "list") String format) {
+        LocalDate today = LocalDate.now();
+        LocalDate end = to != null ? to : today.minusDays(1);
+        LocalDate start = from != null ? from : end.minusDays(6);
+
         try {
+            if ("columnar".equalsIgnoreCase(format)) {
+                CountryImpressionColumns columns = impressionService.getImpressionsByCountryColumns(customerId, start, end);
+                return ResponseEntity.ok(columns);
+            }
+
             // Get the impression data using the Impression service
-            List<CountryImpression> impressions = impressionService.getImpressionsByCountry(customerId);
+            List<CountryImpression> impressions = impressionService.getImpressionsByCountry(customerId, start, end);
 
             return ResponseEntity.ok(impressions);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    /**
+     * Gets impressions by country for the last 7 days, summed across every client account below a manager.
+     *
+     * @param managerId The ID of the manager account
+     * @return Per-country totals and the outcome for each client account
+     */
+    @GetMapping("/by-country/manager/{managerId}")
+    public ResponseEntity<ImpressionRollup> getImpressionsByCountryForManager(@PathVariable String managerId) {
+        try {
+            ImpressionRollup rollup = impressionService.getImpressionsByCountryForManager(managerId);
+
+            return ResponseEntity.ok(rollup);
         } catch (IOException e) {
             e.printStackTrace();
             return ResponseEntity.status(500).build();
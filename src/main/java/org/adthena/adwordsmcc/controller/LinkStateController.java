@@ -0,0 +1,94 @@
+package org.adthena.adwordsmcc.controller;
+
+import com.google.ads.googleads.v18.enums.ManagerLinkStatusEnum.ManagerLinkStatus;
+import org.adthena.adwordsmcc.model.ClientLinkState;
+import org.adthena.adwordsmcc.service.LinkStateIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Controller for reading the indexed link state of client accounts under the configured manager.
+ */
+@RestController
+@RequestMapping("/api/account-links/state")
+public class LinkStateController {
+
+    private static final int MAX_LIMIT = 100000;
+
+    private final LinkStateIndex linkStateIndex;
+
+    @Autowired
+    public LinkStateController(LinkStateIndex linkStateIndex) {
+        this.linkStateIndex = linkStateIndex;
+    }
+
+    /**
+     * Gets the link state of one client account.
+     *
+     * @param clientCustomerId The ID of the client account
+     * @return The client's link state, or 404 if the index has no link for it
+     */
+    @GetMapping("/{clientCustomerId}")
+    public ResponseEntity<ClientLinkState> getLinkState(@PathVariable long clientCustomerId) {
+        ClientLinkState state = linkStateIndex.get(clientCustomerId);
+        return state != null ? ResponseEntity.ok(state) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Lists link states, optionally filtered by status.
+     *
+     * @param status A link status such as PENDING, ACTIVE or REFUSED; omit for all
+     * @param limit  The maximum number of states to return
+     * @return List of link states
+     */
+    @GetMapping
+    public ResponseEntity<List<ClientLinkState>> listLinkStates(
+            @RequestParam(name = "status", required = false) String status,
+            @RequestParam(name = "limit", defaultValue = "1000") int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            ManagerLinkStatus filter = status != null ? ManagerLinkStatus.valueOf(status.toUpperCase()) : null;
+            return ResponseEntity.ok(linkStateIndex.list(filter, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Gets the size, age and status counts of the index.
+     *
+     * @return Map of index statistics
+     */
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        return ResponseEntity.ok(linkStateIndex.getStatus());
+    }
+
+    /**
+     * Starts a background reconciliation with the API.
+     *
+     * @return 202 if it started, 409 if one is already running
+     */
+    @PostMapping("/reconcile")
+    public ResponseEntity<Void> reconcile() {
+        try {
+            if (!linkStateIndex.requestReconcile()) {
+                return ResponseEntity.status(409).build();
+            }
+            return ResponseEntity.accepted().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
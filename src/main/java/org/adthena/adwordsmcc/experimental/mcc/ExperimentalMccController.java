@@ -1,15 +1,21 @@
 package org.adthena.adwordsmcc.experimental.mcc;
 
+import jakarta.servlet.http.HttpServletResponse;
+import org.adthena.adwordsmcc.experimental.mcc.model.MccTraversalResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Experimental REST controller for complete MCC hierarchy traversal.
@@ -26,36 +32,57 @@ public class ExperimentalMccController {
     @Autowired
     private ExperimentalMccService experimentalMccService;
 
+    @Autowired
+    private MccHierarchyJsonWriter hierarchyJsonWriter;
+
     /**
      * Gets the complete MCC hierarchy using optimized single queries per MCC.
      * This endpoint reduces API quota usage by eliminating recursive calls.
-     * Returns raw JSON data for initial implementation to avoid serialization complexity.
+     * The typed result is streamed to the response as it is serialized.
      *
-     * @return Raw JSON string containing the complete hierarchy data
+     * @param mode "direct" for each MCC's direct children, or "full" for every level below each MCC
+     * @param response The response the hierarchy JSON is written to
      */
     @GetMapping("/complete-hierarchy")
-    public ResponseEntity<String> getCompleteMccHierarchy() {
-        logger.info("Received request for optimized MCC hierarchy retrieval");
+    public void getCompleteMccHierarchy(
+            @RequestParam(name = "mode", defaultValue = "direct") String mode,
+            HttpServletResponse response) throws IOException {
+        logger.info("Received request for optimized MCC hierarchy retrieval in {} mode", mode);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
 
+        MccTraversalResult result;
         try {
-            String jsonResult = experimentalMccService.getCompleteMccHierarchy();
-
-            logger.info("Successfully completed optimized MCC hierarchy retrieval");
-            return ResponseEntity.ok()
-                    .header("Content-Type", "application/json")
-                    .body(jsonResult);
-
+            result = experimentalMccService.getCompleteMccHierarchy("full".equalsIgnoreCase(mode));
         } catch (IOException e) {
             logger.error("Failed to retrieve MCC hierarchy", e);
-            return ResponseEntity.status(500)
-                    .header("Content-Type", "application/json")
-                    .body("{\"error\": \"Failed to retrieve MCC hierarchy: " + e.getMessage().replace("\"", "\\\"") + "\"}");
-
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            hierarchyJsonWriter.writeError("Failed to retrieve MCC hierarchy: " + e.getMessage(), response.getOutputStream());
+            return;
         } catch (Exception e) {
             logger.error("Unexpected error during MCC hierarchy retrieval", e);
-            return ResponseEntity.status(500)
-                    .header("Content-Type", "application/json")
-                    .body("{\"error\": \"Unexpected error: " + e.getMessage().replace("\"", "\\\"") + "\"}");
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            hierarchyJsonWriter.writeError("Unexpected error: " + e.getMessage(), response.getOutputStream());
+            return;
+        }
+
+        hierarchyJsonWriter.write(result, response.getOutputStream());
+        logger.info("Successfully completed optimized MCC hierarchy retrieval");
+    }
+
+    /**
+     * Drops the cached hierarchy for the authenticated user so the next request rebuilds it.
+     *
+     * @return Empty response
+     */
+    @DeleteMapping("/complete-hierarchy/cache")
+    public ResponseEntity<Void> invalidateCompleteMccHierarchy() {
+        try {
+            experimentalMccService.invalidateCompleteMccHierarchy();
+            return ResponseEntity.noContent().build();
+        } catch (IOException e) {
+            logger.error("Failed to invalidate MCC hierarchy cache", e);
+            return ResponseEntity.status(500).build();
         }
     }
 
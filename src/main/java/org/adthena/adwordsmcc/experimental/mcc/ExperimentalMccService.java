@@ -1,55 +1,119 @@
 package org.adthena.adwordsmcc.experimental.mcc;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.ads.googleads.lib.GoogleAdsClient;
 import com.google.ads.googleads.v18.resources.CustomerClient;
 import com.google.ads.googleads.v18.services.CustomerServiceClient;
 import com.google.ads.googleads.v18.services.GoogleAdsRow;
-import com.google.ads.googleads.v18.services.GoogleAdsServiceClient;
 import com.google.ads.googleads.v18.services.ListAccessibleCustomersRequest;
 import com.google.ads.googleads.v18.services.ListAccessibleCustomersResponse;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamRequest;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamResponse;
-import com.google.api.gax.rpc.ServerStream;
-import com.google.auth.oauth2.UserCredentials;
+import jakarta.annotation.PostConstruct;
+import org.adthena.adwordsmcc.experimental.mcc.model.MccHierarchyNode;
+import org.adthena.adwordsmcc.experimental.mcc.model.MccTraversalResult;
+import org.adthena.adwordsmcc.service.GaqlQueryExecutor;
+import org.adthena.adwordsmcc.service.GoogleAdsClientRegistry;
+import org.adthena.adwordsmcc.service.TokenService;
+import org.adthena.adwordsmcc.util.BoundedFanOut;
+import org.adthena.adwordsmcc.util.GaqlTemplate;
+import org.adthena.adwordsmcc.util.HierarchyForestBuilder;
+import org.adthena.adwordsmcc.util.SnapshotCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Experimental service for optimized MCC hierarchy retrieval.
  * Uses single customer_client queries per MCC to reduce API quota usage
- * and displays accounts in a simple flat structure.
+ * and returns typed traversal results for streaming serialization.
  */
 @Service
 public class ExperimentalMccService {
 
     private static final Logger logger = LoggerFactory.getLogger(ExperimentalMccService.class);
-    private static final ObjectMapper objectMapper = new ObjectMapper();
 
-    @Value("${google.ads.developer-token}")
-    private String developerToken;
+    private static final GaqlTemplate MANAGER_FLAG_QUERY = GaqlTemplate.compile("customer-manager-flag",
+        "SELECT customer.manager FROM customer WHERE customer.id = {customerId:long}");
 
-    @Value("${google.ads.client-id}")
-    private String clientId;
+    @Autowired
+    private GoogleAdsClientRegistry clientRegistry;
 
-    @Value("${google.ads.client-secret}")
-    private String clientSecret;
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
 
-    @Value("${google.ads.refresh-token}")
-    private String refreshToken;
+    @Autowired
+    private TokenService tokenService;
+
+    @Value("${hierarchy.cache.ttl-seconds:300}")
+    private long hierarchyCacheTtlSeconds;
+
+    @Value("${hierarchy.cache.stale-seconds:1800}")
+    private long hierarchyCacheStaleSeconds;
+
+    @Value("${hierarchy.cache.max-entries:100}")
+    private int hierarchyCacheMaxEntries;
+
+    @Value("${google.ads.access-lookup.max-concurrency:16}")
+    private int managerLookupMaxConcurrency;
+
+    @Value("${google.ads.access-lookup.timeout-seconds:30}")
+    private long managerLookupTimeoutSeconds;
+
+    private SnapshotCache<String, MccTraversalResult> hierarchyCache;
+
+    /**
+     * Manager flag per customer ID, filled by manager probes and by customer_client rows
+     * seen during traversals. An account's manager status does not depend on who asks.
+     */
+    private final Map<String, Boolean> managerFlags = new ConcurrentHashMap<>();
+
+    /**
+     * For each manager seen below another manager's root, one manager whose subtree contains it.
+     * Used to fetch entry points after the entry points above them.
+     */
+    private final Map<String, String> coveringManagers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void initHierarchyCache() {
+        hierarchyCache = new SnapshotCache<>(
+            "complete MCC hierarchy",
+            Duration.ofSeconds(hierarchyCacheTtlSeconds),
+            Duration.ofSeconds(hierarchyCacheStaleSeconds),
+            hierarchyCacheMaxEntries);
+    }
+
+    /**
+     * Returns the complete MCC hierarchy for the authenticated user.
+     * Snapshots are cached per user and mode, and served stale while a background refresh runs.
+     *
+     * @param fullDepth Whether to return every level below each MCC instead of direct children only
+     */
+    public MccTraversalResult getCompleteMccHierarchy(boolean fullDepth) throws IOException {
+        String userEmail = tokenService.getUserEmailFromToken();
+        if (fullDepth) {
+            return hierarchyCache.get(userEmail + "|full", this::loadFullMccHierarchy);
+        }
+        return hierarchyCache.get(userEmail + "|direct", this::loadCompleteMccHierarchy);
+    }
+
+    /**
+     * Drops the authenticated user's cached hierarchies so the next request rebuilds them.
+     */
+    public void invalidateCompleteMccHierarchy() throws IOException {
+        String userEmail = tokenService.getUserEmailFromToken();
+        hierarchyCache.invalidate(userEmail + "|full");
+        hierarchyCache.invalidate(userEmail + "|direct");
+    }
 
     /**
      * Performs optimized complete MCC hierarchy retrieval using single queries per MCC.
      * This method eliminates recursive API calls to reduce quota usage.
      */
-    public String getCompleteMccHierarchy() throws IOException {
+    private MccTraversalResult loadCompleteMccHierarchy() throws IOException {
         long startTime = System.currentTimeMillis();
         logger.info("Starting optimized MCC hierarchy retrieval");
 
@@ -62,42 +126,31 @@ public class ExperimentalMccService {
             List<String> mccIds = identifyMccAccounts(accessibleCustomerIds);
             logger.info("Found {} MCC accounts: {}", mccIds.size(), mccIds);
 
-            // Step 3: For each MCC, fetch complete hierarchy using single query
-            Map<String, Object> completeHierarchyData = new HashMap<>();
-            completeHierarchyData.put("entryPointMccIds", mccIds);
-            completeHierarchyData.put("directAccessCustomers", accessibleCustomerIds);
-
-            List<Map<String, Object>> mccHierarchies = new ArrayList<>();
+            // Step 3: For each MCC, fetch its direct children using single query
+            MccTraversalResult result = new MccTraversalResult(new ArrayList<>());
+            result.setDirectAccessCustomerIds(accessibleCustomerIds);
             int totalAccounts = 0;
-            int totalErrors = 0;
 
             for (String mccId : mccIds) {
+                result.addEntryPointMccId(mccId);
                 try {
-                    Map<String, Object> mccHierarchy = getDirectChildrenForMcc(mccId);
-                    mccHierarchies.add(mccHierarchy);
-
-                    Integer accountCount = (Integer) mccHierarchy.get("totalAccounts");
-                    if (accountCount != null) {
-                        totalAccounts += accountCount;
-                    }
+                    MccHierarchyNode root = getDirectChildrenForMcc(mccId);
+                    result.getHierarchy().add(root);
+                    totalAccounts += root.getChildren().size();
                 } catch (Exception e) {
                     logger.warn("Error fetching hierarchy for MCC {}: {}", mccId, e.getMessage());
-                    totalErrors++;
+                    result.addMccError(mccId, e.getMessage());
                 }
             }
 
-            completeHierarchyData.put("mccHierarchies", mccHierarchies);
-            completeHierarchyData.put("totalAccounts", totalAccounts);
-            completeHierarchyData.put("totalErrors", totalErrors);
-            completeHierarchyData.put("traversalTimeMs", System.currentTimeMillis() - startTime);
-
-            // Convert to JSON string
-            String jsonResult = convertToJsonString(completeHierarchyData);
+            result.setTotalAccountsDiscovered(totalAccounts);
+            result.setMaxDepthReached(totalAccounts > 0 ? 1 : 0);
+            result.setTraversalTimeMs(System.currentTimeMillis() - startTime);
 
             logger.info("Optimized MCC hierarchy retrieval completed in {}ms. Found {} total accounts across {} MCCs with {} errors",
-                       System.currentTimeMillis() - startTime, totalAccounts, mccIds.size(), totalErrors);
+                       result.getTraversalTimeMs(), totalAccounts, mccIds.size(), result.getErrorsEncountered());
 
-            return jsonResult;
+            return result;
 
         } catch (Exception e) {
             logger.error("Error during optimized MCC hierarchy retrieval", e);
@@ -106,240 +159,393 @@ public class ExperimentalMccService {
     }
 
     /**
-     * Gets all accessible customer IDs for the authenticated user.
+     * Retrieves the full-depth hierarchy with one unfiltered customer_client query per entry-point MCC.
+     * Entry points already covered by another MCC's subtree are not fetched again, and the nested
+     * tree is rebuilt locally from levels and manager links.
      */
-    private List<String> getAccessibleCustomerIds() throws IOException {
-        List<String> customerIds = new ArrayList<>();
-        GoogleAdsClient googleAdsClient = createGoogleAdsClient();
+    private MccTraversalResult loadFullMccHierarchy() throws IOException {
+        long startTime = System.currentTimeMillis();
+        logger.info("Starting full-depth MCC hierarchy retrieval");
+
+        try {
+            List<String> accessibleCustomerIds = getAccessibleCustomerIds();
+            List<String> mccIds = identifyMccAccounts(accessibleCustomerIds);
+            logger.info("Found {} MCC accounts among {} accessible customers", mccIds.size(), accessibleCustomerIds.size());
 
-        try (CustomerServiceClient customerServiceClient =
-             googleAdsClient.getLatestVersion().createCustomerServiceClient()) {
+            MccTraversalResult result = traverseFullDepth(accessibleCustomerIds, mccIds);
+            result.setTraversalTimeMs(System.currentTimeMillis() - startTime);
+            logger.info(result.getTraversalSummary());
 
-            ListAccessibleCustomersRequest request = ListAccessibleCustomersRequest.newBuilder().build();
-            ListAccessibleCustomersResponse response = customerServiceClient.listAccessibleCustomers(request);
+            return result;
 
-            for (String customerResourceName : response.getResourceNamesList()) {
-                String customerId = extractCustomerIdFromResourceName(customerResourceName);
-                customerIds.add(customerId);
-            }
+        } catch (Exception e) {
+            logger.error("Error during full-depth MCC hierarchy retrieval", e);
+            throw new IOException("Failed to retrieve MCC hierarchy: " + e.getMessage(), e);
         }
-
-        return customerIds;
     }
 
     /**
-     * Identifies which of the accessible customers are MCC accounts.
+     * Fetches each entry-point MCC's whole subtree once and assembles a single deduplicated forest.
+     * Entry points known from earlier traversals to sit below another entry point are fetched last,
+     * so they are normally covered by then; one fetched before its ancestor is dropped in favour of
+     * the ancestor's subtree.
      */
-    private List<String> identifyMccAccounts(List<String> customerIds) throws IOException {
-        List<String> mccIds = new ArrayList<>();
-        GoogleAdsClient googleAdsClient = createGoogleAdsClient();
+    private MccTraversalResult traverseFullDepth(List<String> accessibleCustomerIds, List<String> mccIds) {
+        Set<String> directAccess = new HashSet<>(accessibleCustomerIds);
+        MccTraversalResult result = new MccTraversalResult(new ArrayList<>());
+        result.setDirectAccessCustomerIds(accessibleCustomerIds);
+        Map<String, List<CustomerClient>> subtrees = new LinkedHashMap<>();
+        Set<String> fetchedIds = new HashSet<>();
+        Map<String, String> containedIn = new HashMap<>();
+
+        Set<String> entryPoints = new HashSet<>(mccIds);
+        List<String> fetchOrder = new ArrayList<>(mccIds);
+        fetchOrder.sort(Comparator.comparing(mccId -> entryPoints.contains(coveringManagers.get(mccId))));
+
+        for (String mccId : mccIds) {
+            result.addEntryPointMccId(mccId);
+        }
+        for (String mccId : fetchOrder) {
+            if (fetchedIds.contains(mccId)) {
+                logger.info("Skipping MCC {}: already covered by a fetched subtree", mccId);
+                continue;
+            }
 
-        for (String customerId : customerIds) {
-            if (isManagerAccount(googleAdsClient, customerId)) {
-                mccIds.add(customerId);
+            try {
+                List<CustomerClient> rows = fetchFullSubtree(mccId);
+                subtrees.put(mccId, rows);
+                for (CustomerClient row : rows) {
+                    String customerId = String.valueOf(row.getId());
+                    fetchedIds.add(customerId);
+                    if (row.getManager() && row.getLevel() > 0) {
+                        coveringManagers.put(customerId, mccId);
+                        containedIn.put(customerId, mccId);
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Error fetching full hierarchy for MCC {}: {}", mccId, e.getMessage());
+                result.addMccError(mccId, e.getMessage());
             }
         }
 
-        return mccIds;
-    }
+        // A subtree fetched before its ancestor's is contained in it
+        for (String mccId : new ArrayList<>(subtrees.keySet())) {
+            String ancestor = containedIn.get(mccId);
+            if (ancestor != null && subtrees.containsKey(ancestor) && !ancestor.equals(mccId)) {
+                logger.info("Dropping subtree of MCC {}: contained in the subtree of MCC {}", mccId, ancestor);
+                subtrees.remove(mccId);
+            }
+        }
 
-    /**
-     * Gets direct child customers for a specific MCC using a single customer_client query.
-     * Returns only the immediate children (level 1) of the root MCC account.
-     */
-    private Map<String, Object> getDirectChildrenForMcc(String mccId) throws IOException {
-        GoogleAdsClient googleAdsClient = createGoogleAdsClientWithLoginCustomer(mccId);
-        Map<String, Object> hierarchyData = new HashMap<>();
-        List<Map<String, Object>> accounts = new ArrayList<>();
-
-        try (GoogleAdsServiceClient googleAdsServiceClient =
-             googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
-
-            // Single query to get direct children only with enabled status filter
-            String query = "SELECT " +
-                          "customer_client.client_customer, " +
-                          "customer_client.descriptive_name, " +
-                          "customer_client.level, " +
-                          "customer_client.manager, " +
-                          "customer_client.currency_code, " +
-                          "customer_client.time_zone, " +
-                          "customer_client.id " +
-                          "FROM customer_client " +
-                          "WHERE customer_client.status = 'ENABLED' " +
-                          "AND customer_client.level = 1";
-
-            SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
-                .setCustomerId(mccId)
-                .setQuery(query)
-                .build();
-
-            ServerStream<SearchGoogleAdsStreamResponse> stream =
-                googleAdsServiceClient.searchStreamCallable().call(request);
-
-            for (SearchGoogleAdsStreamResponse response : stream) {
-                for (GoogleAdsRow row : response.getResultsList()) {
-                    CustomerClient customerClient = row.getCustomerClient();
-
-                    Map<String, Object> accountData = new HashMap<>();
-                    accountData.put("customerId", String.valueOf(customerClient.getId()));
-                    accountData.put("descriptiveName", customerClient.getDescriptiveName());
-                    accountData.put("level", (int) customerClient.getLevel());
-                    accountData.put("isManager", customerClient.getManager());
-                    accountData.put("currencyCode", customerClient.getCurrencyCode());
-                    accountData.put("timeZone", customerClient.getTimeZone());
-                    accountData.put("resourceName", customerClient.getClientCustomer());
-                    accountData.put("discoveredViaMccId", mccId);
-                    // No children array for individual accounts in flat structure
-
-                    accounts.add(accountData);
-                }
+        Map<String, CustomerClient> accountsById = new LinkedHashMap<>();
+        Map<String, String> discoveredVia = new HashMap<>();
+        for (Map.Entry<String, List<CustomerClient>> subtree : subtrees.entrySet()) {
+            for (CustomerClient row : subtree.getValue()) {
+                String customerId = String.valueOf(row.getId());
+                accountsById.putIfAbsent(customerId, row);
+                discoveredVia.putIfAbsent(customerId, subtree.getKey());
             }
+        }
 
-            // Build simple flat tree structure
-            Map<String, Object> hierarchyTree = buildFlatTree(accounts, mccId);
+        Map<String, String> parents = resolveParents(subtrees);
 
-            hierarchyData.put("mccId", mccId);
-            hierarchyData.put("hierarchyTree", hierarchyTree);
-            hierarchyData.put("totalAccounts", accounts.size());
+        HierarchyForestBuilder<MccHierarchyNode> builder = new HierarchyForestBuilder<>(accountsById.size());
+        int directAccessAccounts = 0;
+        for (CustomerClient row : accountsById.values()) {
+            String customerId = String.valueOf(row.getId());
+            boolean direct = directAccess.contains(customerId);
+            if (direct) {
+                directAccessAccounts++;
+            }
 
-        } catch (Exception e) {
-            logger.warn("Error fetching hierarchy for MCC {}: {}", mccId, e.getMessage());
-            hierarchyData.put("mccId", mccId);
-            hierarchyData.put("hierarchyTree", new HashMap<>());
-            hierarchyData.put("totalAccounts", 0);
-            hierarchyData.put("error", e.getMessage());
+            MccHierarchyNode node = new MccHierarchyNode(
+                customerId,
+                row.getClientCustomer(),
+                row.getDescriptiveName(),
+                direct ? "Direct Access" : "Via MCC",
+                row.getCurrencyCode(),
+                row.getTimeZone(),
+                row.getManager(),
+                0,
+                direct ? null : discoveredVia.get(customerId));
+
+            String parentId = parents.get(customerId);
+            builder.add(row.getId(), parentId != null ? Long.parseLong(parentId) : HierarchyForestBuilder.NO_PARENT, node);
+        }
+
+        HierarchyForestBuilder.Forest<MccHierarchyNode> forest = builder.build(
+            new HierarchyForestBuilder.NodeAssembler<>() {
+                @Override
+                public void addChild(MccHierarchyNode parent, MccHierarchyNode child) {
+                    parent.addChild(child);
+                }
+
+                @Override
+                public void setDepth(MccHierarchyNode node, int depth) {
+                    node.setLevel(depth);
+                }
+            });
+
+        if (!forest.cycleBreaks().isEmpty()) {
+            logger.warn("Broke manager link cycles at accounts {}", forest.cycleBreaks());
+        }
+
+        for (MccHierarchyNode root : forest.roots()) {
+            sortChildrenForDisplay(root);
         }
 
-        return hierarchyData;
+        result.setHierarchy(forest.roots());
+        result.setTotalAccountsDiscovered(accountsById.size());
+        result.setDirectAccessAccounts(directAccessAccounts);
+        result.setMccDiscoveredAccounts(accountsById.size() - directAccessAccounts);
+        result.setMaxDepthReached(forest.maxDepth());
+        return result;
     }
 
     /**
-     * Builds a simple flat tree structure where all accounts are direct children of the root MCC.
-     * Applies sorting: manager accounts first, then client accounts, both alphabetically sorted.
+     * Fetches every account below an MCC, at all levels, with a single customer_client query.
      */
-    private Map<String, Object> buildFlatTree(List<Map<String, Object>> accounts, String rootMccId) {
-        // Sort accounts: managers first, then clients, both alphabetically by descriptive name
-        List<Map<String, Object>> sortedAccounts = sortAccountsForDisplay(accounts);
-
-        // Create virtual root for the queried MCC
-        Map<String, Object> rootAccount = new HashMap<>();
-        rootAccount.put("customerId", rootMccId);
-        rootAccount.put("descriptiveName", "MCC Root (" + rootMccId + ")");
-        rootAccount.put("level", 0);
-        rootAccount.put("isManager", true);
-        rootAccount.put("currencyCode", "");
-        rootAccount.put("timeZone", "");
-        rootAccount.put("resourceName", "customers/" + rootMccId);
-        rootAccount.put("discoveredViaMccId", rootMccId);
-        rootAccount.put("children", sortedAccounts);
-
-        return rootAccount;
+    private List<CustomerClient> fetchFullSubtree(String mccId) {
+        List<CustomerClient> rows = new ArrayList<>();
+
+        String query = "SELECT " +
+                      "customer_client.client_customer, " +
+                      "customer_client.descriptive_name, " +
+                      "customer_client.level, " +
+                      "customer_client.manager, " +
+                      "customer_client.currency_code, " +
+                      "customer_client.time_zone, " +
+                      "customer_client.id " +
+                      "FROM customer_client " +
+                      "WHERE customer_client.status = 'ENABLED'";
+
+        for (GoogleAdsRow row : queryExecutor.search(Long.parseLong(mccId), mccId, query)) {
+            CustomerClient customerClient = row.getCustomerClient();
+            managerFlags.put(String.valueOf(customerClient.getId()), customerClient.getManager());
+            rows.add(customerClient);
+        }
+
+        return rows;
     }
 
     /**
-     * Sorts accounts for optimal display: manager accounts first, then client accounts,
-     * with case-sensitive alphabetical sorting by descriptive name within each group.
-     * Uppercase letters are sorted before lowercase letters within each group.
+     * Derives each account's direct manager. Level 1 rows belong to their subtree root. A deeper row
+     * belongs to the only manager one level up when there is exactly one; otherwise the candidate
+     * managers' active client links are fetched to place it. Anything still unplaced is attached
+     * to its subtree root.
      */
-    private List<Map<String, Object>> sortAccountsForDisplay(List<Map<String, Object>> accounts) {
-        return accounts.stream()
-            .sorted((account1, account2) -> {
-                Boolean isManager1 = (Boolean) account1.get("isManager");
-                Boolean isManager2 = (Boolean) account2.get("isManager");
-                String name1 = (String) account1.get("descriptiveName");
-                String name2 = (String) account2.get("descriptiveName");
-
-                // Handle null values
-                if (isManager1 == null) isManager1 = false;
-                if (isManager2 == null) isManager2 = false;
-                if (name1 == null) name1 = "";
-                if (name2 == null) name2 = "";
-
-                // Primary sort: managers first (true > false, so we reverse the comparison)
-                int managerComparison = Boolean.compare(isManager2, isManager1);
-                if (managerComparison != 0) {
-                    return managerComparison;
+    private Map<String, String> resolveParents(Map<String, List<CustomerClient>> subtrees) {
+        Map<String, String> parents = new HashMap<>();
+
+        for (Map.Entry<String, List<CustomerClient>> subtree : subtrees.entrySet()) {
+            for (CustomerClient row : subtree.getValue()) {
+                if (row.getLevel() == 1) {
+                    parents.putIfAbsent(String.valueOf(row.getId()), subtree.getKey());
                 }
+            }
+        }
 
-                // Secondary sort: case-sensitive alphabetical by descriptive name
-                // This naturally sorts uppercase letters before lowercase letters
-                return name1.compareTo(name2);
-            })
-            .collect(Collectors.toList());
+        Map<String, List<String>> clientLinksByManager = new HashMap<>();
+        for (Map.Entry<String, List<CustomerClient>> subtree : subtrees.entrySet()) {
+            String rootMccId = subtree.getKey();
+            Map<Long, List<String>> managersByLevel = new HashMap<>();
+            for (CustomerClient row : subtree.getValue()) {
+                if (row.getManager()) {
+                    managersByLevel.computeIfAbsent(row.getLevel(), level -> new ArrayList<>()).add(String.valueOf(row.getId()));
+                }
+            }
+
+            for (CustomerClient row : subtree.getValue()) {
+                String customerId = String.valueOf(row.getId());
+                if (row.getLevel() < 2 || parents.containsKey(customerId)) {
+                    continue;
+                }
+
+                List<String> candidates = managersByLevel.getOrDefault(row.getLevel() - 1, List.of());
+                if (candidates.size() == 1) {
+                    parents.put(customerId, candidates.get(0));
+                    continue;
+                }
+
+                for (String candidate : candidates) {
+                    List<String> clientIds = clientLinksByManager.computeIfAbsent(
+                        candidate, managerId -> fetchActiveClientLinks(rootMccId, managerId));
+                    if (clientIds.contains(customerId)) {
+                        parents.put(customerId, candidate);
+                        break;
+                    }
+                }
+                parents.putIfAbsent(customerId, rootMccId);
+            }
+        }
+
+        return parents;
     }
 
     /**
-     * Creates a GoogleAdsClient with default credentials.
+     * Fetches the IDs of a manager's active direct clients.
      */
-    private GoogleAdsClient createGoogleAdsClient() {
-        UserCredentials credentials = UserCredentials.newBuilder()
-            .setClientId(clientId)
-            .setClientSecret(clientSecret)
-            .setRefreshToken(refreshToken)
-            .build();
-
-        return GoogleAdsClient.newBuilder()
-            .setCredentials(credentials)
-            .setDeveloperToken(developerToken)
-            .build();
+    private List<String> fetchActiveClientLinks(String loginMccId, String managerId) {
+        List<String> clientIds = new ArrayList<>();
+
+        try {
+            String query = "SELECT customer_client_link.client_customer " +
+                          "FROM customer_client_link " +
+                          "WHERE customer_client_link.status = 'ACTIVE'";
+
+            for (GoogleAdsRow row : queryExecutor.search(Long.parseLong(loginMccId), managerId, query)) {
+                clientIds.add(extractCustomerIdFromResourceName(row.getCustomerClientLink().getClientCustomer()));
+            }
+        } catch (Exception e) {
+            logger.warn("Could not fetch client links for manager {}: {}", managerId, e.getMessage());
+        }
+
+        return clientIds;
     }
 
     /**
-     * Creates a GoogleAdsClient with a specific login-customer-id header.
+     * Sorts children at every level for display: manager accounts first, then client accounts,
+     * with case-sensitive alphabetical sorting by descriptive name within each group.
+     * Uppercase letters are sorted before lowercase letters within each group.
      */
-    private GoogleAdsClient createGoogleAdsClientWithLoginCustomer(String loginCustomerId) {
-        UserCredentials credentials = UserCredentials.newBuilder()
-            .setClientId(clientId)
-            .setClientSecret(clientSecret)
-            .setRefreshToken(refreshToken)
-            .build();
-
-        return GoogleAdsClient.newBuilder()
-            .setCredentials(credentials)
-            .setDeveloperToken(developerToken)
-            .setLoginCustomerId(Long.parseLong(loginCustomerId))
-            .build();
+    private void sortChildrenForDisplay(MccHierarchyNode node) {
+        Comparator<MccHierarchyNode> displayOrder = Comparator
+            .comparing((MccHierarchyNode child) -> !child.isManager())
+            .thenComparing(child -> child.getDescriptiveName() != null ? child.getDescriptiveName() : "");
+
+        Deque<MccHierarchyNode> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            MccHierarchyNode current = pending.pop();
+            current.getChildren().sort(displayOrder);
+            for (MccHierarchyNode child : current.getChildren()) {
+                pending.push(child);
+            }
+        }
     }
 
     /**
-     * Checks if a customer account is a manager account.
+     * Gets all accessible customer IDs for the authenticated user.
      */
-    private boolean isManagerAccount(GoogleAdsClient googleAdsClient, String customerId) {
-        try (GoogleAdsServiceClient googleAdsServiceClient =
-             googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
+    private List<String> getAccessibleCustomerIds() throws IOException {
+        List<String> customerIds = new ArrayList<>();
+        CustomerServiceClient customerServiceClient = clientRegistry.getCustomerServiceClient(null);
 
-            String query = "SELECT customer.manager FROM customer WHERE customer.id = " + customerId;
+        ListAccessibleCustomersRequest request = ListAccessibleCustomersRequest.newBuilder().build();
+        ListAccessibleCustomersResponse response = customerServiceClient.listAccessibleCustomers(request);
 
-            SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
-                .setCustomerId(customerId)
-                .setQuery(query)
-                .build();
+        for (String customerResourceName : response.getResourceNamesList()) {
+            String customerId = extractCustomerIdFromResourceName(customerResourceName);
+            customerIds.add(customerId);
+        }
 
-            ServerStream<SearchGoogleAdsStreamResponse> stream =
-                googleAdsServiceClient.searchStreamCallable().call(request);
+        return customerIds;
+    }
 
-            for (SearchGoogleAdsStreamResponse response : stream) {
-                for (GoogleAdsRow row : response.getResultsList()) {
-                    return row.getCustomer().getManager();
-                }
+    /**
+     * Identifies which of the accessible customers are MCC accounts.
+     * Flags already known from earlier probes or traversals are reused; the rest are probed
+     * concurrently on the shared client. Accounts whose probe fails are treated as non-managers
+     * and probed again next time.
+     */
+    private List<String> identifyMccAccounts(List<String> customerIds) {
+        List<String> unknownIds = new ArrayList<>();
+        for (String customerId : customerIds) {
+            if (!managerFlags.containsKey(customerId)) {
+                unknownIds.add(customerId);
             }
-        } catch (Exception e) {
-            logger.warn("Could not determine if customer {} is manager: {}", customerId, e.getMessage());
         }
 
-        return false;
+        if (!unknownIds.isEmpty()) {
+            logger.info("Probing manager flag for {} of {} accessible customers", unknownIds.size(), customerIds.size());
+            BoundedFanOut.map(
+                unknownIds,
+                managerLookupMaxConcurrency,
+                Duration.ofSeconds(managerLookupTimeoutSeconds),
+                customerId -> {
+                    boolean manager = isManagerAccount(customerId);
+                    managerFlags.put(customerId, manager);
+                    return manager;
+                },
+                (customerId, failure) -> {
+                    logger.warn("Could not determine if customer {} is manager: {}", customerId, failure.getMessage());
+                    return false;
+                });
+        }
+
+        List<String> mccIds = new ArrayList<>();
+        for (String customerId : customerIds) {
+            if (managerFlags.getOrDefault(customerId, false)) {
+                mccIds.add(customerId);
+            }
+        }
+
+        return mccIds;
     }
 
     /**
-     * Converts the hierarchy data to JSON string using Jackson ObjectMapper.
+     * Gets direct child customers for a specific MCC using a single customer_client query.
+     * Returns a virtual root for the MCC with only its immediate children (level 1) below it.
      */
-    private String convertToJsonString(Map<String, Object> data) {
-        try {
-            return objectMapper.writeValueAsString(data);
-        } catch (JsonProcessingException e) {
-            logger.error("Error converting to JSON", e);
-            return "{\"error\": \"Failed to convert data to JSON: " + e.getMessage().replace("\"", "\\\"") + "\"}";
+    private MccHierarchyNode getDirectChildrenForMcc(String mccId) {
+        // Single query to get direct children only with enabled status filter
+        String query = "SELECT " +
+                      "customer_client.client_customer, " +
+                      "customer_client.descriptive_name, " +
+                      "customer_client.level, " +
+                      "customer_client.manager, " +
+                      "customer_client.currency_code, " +
+                      "customer_client.time_zone, " +
+                      "customer_client.id " +
+                      "FROM customer_client " +
+                      "WHERE customer_client.status = 'ENABLED' " +
+                      "AND customer_client.level = 1";
+
+        List<GoogleAdsRow> rows = queryExecutor.search(Long.parseLong(mccId), mccId, query);
+
+        // Virtual root for the queried MCC
+        MccHierarchyNode root = new MccHierarchyNode(
+            mccId,
+            "customers/" + mccId,
+            "MCC Root (" + mccId + ")",
+            null,
+            "",
+            "",
+            true,
+            0,
+            mccId);
+
+        for (GoogleAdsRow row : rows) {
+            CustomerClient customerClient = row.getCustomerClient();
+            managerFlags.put(String.valueOf(customerClient.getId()), customerClient.getManager());
+            root.addChild(new MccHierarchyNode(
+                String.valueOf(customerClient.getId()),
+                customerClient.getClientCustomer(),
+                customerClient.getDescriptiveName(),
+                null,
+                customerClient.getCurrencyCode(),
+                customerClient.getTimeZone(),
+                customerClient.getManager(),
+                (int) customerClient.getLevel(),
+                mccId));
+        }
+
+        sortChildrenForDisplay(root);
+        return root;
+    }
+
+    /**
+     * Checks if a customer account is a manager account.
+     */
+    private boolean isManagerAccount(String customerId) {
+        GaqlTemplate.Binding query = MANAGER_FLAG_QUERY.bind()
+            .set("customerId", Long.parseLong(customerId));
+
+        for (GoogleAdsRow row : queryExecutor.search(null, customerId, query)) {
+            return row.getCustomer().getManager();
         }
+
+        return false;
     }
 
     /**
@@ -0,0 +1,120 @@
+package org.adthena.adwordsmcc.experimental.mcc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import org.adthena.adwordsmcc.experimental.mcc.model.MccHierarchyNode;
+import org.adthena.adwordsmcc.experimental.mcc.model.MccTraversalResult;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes MCC traversal results straight to an output stream with a streaming JSON generator.
+ * Nodes are emitted as the tree is walked, so no intermediate map graph or response string is built.
+ * The layout matches the one the frontend reads: entry points, one entry per MCC hierarchy with its
+ * tree, followed by traversal statistics.
+ */
+@Component
+public class MccHierarchyJsonWriter {
+
+    private static final JsonFactory jsonFactory = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .build();
+
+    /**
+     * Writes the traversal result as JSON.
+     */
+    public void write(MccTraversalResult result, OutputStream out) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            generator.writeStartObject();
+            writeStringArray(generator, "entryPointMccIds", result.getEntryPointMccIds());
+            writeStringArray(generator, "directAccessCustomers", result.getDirectAccessCustomerIds());
+
+            generator.writeArrayFieldStart("mccHierarchies");
+            for (MccHierarchyNode root : result.getHierarchy()) {
+                generator.writeStartObject();
+                generator.writeStringField("mccId", root.getCustomerId());
+                generator.writeNumberField("totalAccounts", countDescendants(root));
+                generator.writeFieldName("hierarchyTree");
+                writeNode(generator, root);
+                generator.writeEndObject();
+            }
+            if (result.getErrorsByMccId() != null) {
+                for (Map.Entry<String, String> error : result.getErrorsByMccId().entrySet()) {
+                    generator.writeStartObject();
+                    generator.writeStringField("mccId", error.getKey());
+                    generator.writeNumberField("totalAccounts", 0);
+                    generator.writeObjectFieldStart("hierarchyTree");
+                    generator.writeEndObject();
+                    generator.writeStringField("error", error.getValue());
+                    generator.writeEndObject();
+                }
+            }
+            generator.writeEndArray();
+
+            generator.writeNumberField("totalAccounts", result.getTotalAccountsDiscovered());
+            generator.writeNumberField("directAccessAccounts", result.getDirectAccessAccounts());
+            generator.writeNumberField("mccDiscoveredAccounts", result.getMccDiscoveredAccounts());
+            generator.writeNumberField("maxDepthReached", result.getMaxDepthReached());
+            writeStringArray(generator, "inaccessibleAccounts", result.getInaccessibleAccounts());
+            generator.writeNumberField("totalErrors", result.getErrorsEncountered());
+            generator.writeNumberField("traversalTimeMs", result.getTraversalTimeMs());
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes a single-field error object.
+     */
+    public void writeError(String message, OutputStream out) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("error", message);
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeNode(JsonGenerator generator, MccHierarchyNode node) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("customerId", node.getCustomerId());
+        generator.writeStringField("descriptiveName", node.getDescriptiveName());
+        generator.writeNumberField("level", node.getLevel());
+        generator.writeBooleanField("isManager", node.isManager());
+        generator.writeStringField("currencyCode", node.getCurrencyCode());
+        generator.writeStringField("timeZone", node.getTimeZone());
+        generator.writeStringField("resourceName", node.getResourceName());
+        if (node.getAccessLevel() != null) {
+            generator.writeStringField("accessLevel", node.getAccessLevel());
+        }
+        generator.writeStringField("discoveredViaMccId", node.getDiscoveredViaMccId());
+
+        generator.writeArrayFieldStart("children");
+        for (MccHierarchyNode child : node.getChildren()) {
+            writeNode(generator, child);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private void writeStringArray(JsonGenerator generator, String fieldName, List<String> values) throws IOException {
+        generator.writeArrayFieldStart(fieldName);
+        if (values != null) {
+            for (String value : values) {
+                generator.writeString(value);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private int countDescendants(MccHierarchyNode node) {
+        int count = 0;
+        for (MccHierarchyNode child : node.getChildren()) {
+            count += 1 + countDescendants(child);
+        }
+        return count;
+    }
+}
@@ -5,7 +5,9 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Wrapper class for MCC traversal results with metadata.
@@ -61,6 +63,16 @@ public class MccTraversalResult {
      */
     private List<String> entryPointMccIds;
 
+    /**
+     * List of customer IDs the authenticated user has direct access to.
+     */
+    private List<String> directAccessCustomerIds;
+
+    /**
+     * Error messages for MCC accounts whose hierarchy could not be retrieved, keyed by MCC ID.
+     */
+    private Map<String, String> errorsByMccId;
+
     /**
      * Constructor with basic hierarchy data.
      */
@@ -68,6 +80,8 @@ public class MccTraversalResult {
         this.hierarchy = hierarchy != null ? hierarchy : new ArrayList<>();
         this.inaccessibleAccounts = new ArrayList<>();
         this.entryPointMccIds = new ArrayList<>();
+        this.directAccessCustomerIds = new ArrayList<>();
+        this.errorsByMccId = new LinkedHashMap<>();
     }
 
     /**
@@ -90,6 +104,18 @@ public class MccTraversalResult {
         entryPointMccIds.add(mccId);
     }
 
+    /**
+     * Records an MCC whose hierarchy could not be retrieved and increments the error counter.
+     */
+    public void addMccError(String mccId, String message) {
+        if (errorsByMccId == null) {
+            errorsByMccId = new LinkedHashMap<>();
+        }
+        errorsByMccId.put(mccId, message);
+        addInaccessibleAccount(mccId);
+        incrementErrors();
+    }
+
     /**
      * Increments the error counter.
      */
@@ -0,0 +1,22 @@
+package org.adthena.adwordsmcc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Progress of a single client account within a cross-account rollup.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountRollupStatus {
+    private String customerId;
+    private String descriptiveName;
+    private String status;
+    private long rowsProcessed;
+    private long impressions;
+    // Null for an account whose query never started
+    private Long elapsedMs;
+    private String error;
+}
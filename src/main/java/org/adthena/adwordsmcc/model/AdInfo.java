@@ -1,5 +1,6 @@
 package org.adthena.adwordsmcc.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -8,8 +9,10 @@ import java.util.List;
 
 /**
  * Simple model for ad information including final URLs.
+ * Fields left out of a {@code fields=} selection are null and omitted from the JSON.
  */
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @NoArgsConstructor
 @AllArgsConstructor
 public class AdInfo {
@@ -0,0 +1,22 @@
+package org.adthena.adwordsmcc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of ads, with the cursor for the next page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AdPage {
+    private List<AdInfo> ads;
+
+    /**
+     * Opaque cursor to pass back for the next page, or null when this is the last page.
+     */
+    private String nextCursor;
+}
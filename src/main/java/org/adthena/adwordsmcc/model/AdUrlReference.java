@@ -0,0 +1,17 @@
+package org.adthena.adwordsmcc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * An ad, in a specific account, that has a given final URL.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AdUrlReference {
+    private String finalUrl;
+    private String customerId;
+    private Long adId;
+}
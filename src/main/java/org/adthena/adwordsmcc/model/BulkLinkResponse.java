@@ -0,0 +1,22 @@
+package org.adthena.adwordsmcc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Response model for bulk account linking operations, with one result per distinct client ID.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkLinkResponse {
+    private String managerId;
+    private int requested;
+    private int succeeded;
+    private int failed;
+    private long elapsedMs;
+    private List<ClientLinkResult> results;
+}
@@ -0,0 +1,39 @@
+package org.adthena.adwordsmcc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The outcome of a link operation for one client account within a bulk request.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClientLinkResult {
+
+    /**
+     * The client account ID as given in the request, or normalized without dashes when valid.
+     */
+    private String clientCustomerId;
+
+    /**
+     * Whether the operation succeeded for this client.
+     */
+    private boolean success;
+
+    /**
+     * A message describing the result for this client.
+     */
+    private String message;
+
+    /**
+     * The resource name of the created or updated link, if applicable.
+     */
+    private String resourceName;
+
+    /**
+     * Whether the failure was transient and the operation can be tried again.
+     */
+    private boolean retryable;
+}
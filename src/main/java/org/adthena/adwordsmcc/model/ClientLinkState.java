@@ -0,0 +1,24 @@
+package org.adthena.adwordsmcc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The known state of the link between the manager and one client account.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClientLinkState {
+    private String clientCustomerId;
+    private String status;
+    private long managerLinkId;
+
+    /**
+     * "reconciled" if read from the API in the last reconciliation, "local" if recorded by a
+     * link operation since then.
+     */
+    private String source;
+    private String updatedAt;
+}
@@ -13,4 +13,11 @@ import lombok.NoArgsConstructor;
 public class CountryImpression {
     private Long countryCriterionId;
     private Long impressions;
+    private String countryCode;
+    private String countryName;
+
+    public CountryImpression(Long countryCriterionId, Long impressions) {
+        this.countryCriterionId = countryCriterionId;
+        this.impressions = impressions;
+    }
 }
@@ -0,0 +1,20 @@
+package org.adthena.adwordsmcc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Compact columnar form of impressions by country.
+ * Entry i of each array describes the same country, ordered by impressions, highest first.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CountryImpressionColumns {
+    private long[] countryCriterionIds;
+    private String[] countryCodes;
+    private String[] countryNames;
+    private long[] impressions;
+    private long totalImpressions;
+}
@@ -1,5 +1,6 @@
 package org.adthena.adwordsmcc.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -10,8 +11,10 @@ import java.util.List;
 /**
  * Represents a node in the Google Ads customer account hierarchy.
  * Each node contains customer information and references to child accounts.
+ * Fields left out of a {@code fields=} selection are null and omitted from the JSON.
  */
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @NoArgsConstructor
 @AllArgsConstructor
 public class CustomerHierarchyNode {
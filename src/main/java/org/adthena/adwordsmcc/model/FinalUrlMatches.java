@@ -0,0 +1,20 @@
+package org.adthena.adwordsmcc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Result of a final URL index lookup.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FinalUrlMatches {
+    private int totalMatches;
+    private boolean truncated;
+    private long lookupMicros;
+    private List<AdUrlReference> references;
+}
@@ -1,13 +1,16 @@
 package org.adthena.adwordsmcc.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 /**
  * Represents a Google Ads customer account.
+ * Fields left out of a {@code fields=} selection are null and omitted from the JSON.
  */
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @NoArgsConstructor
 @AllArgsConstructor
 public class GoogleAdsCustomer {
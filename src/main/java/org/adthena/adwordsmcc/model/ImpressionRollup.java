@@ -0,0 +1,24 @@
+package org.adthena.adwordsmcc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Per-country impression totals summed across every client account below a manager.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImpressionRollup {
+    private String managerId;
+    private int accountsTotal;
+    private int accountsSucceeded;
+    private int accountsFailed;
+    private long totalImpressions;
+    private long elapsedMs;
+    private List<CountryImpression> countries;
+    private List<AccountRollupStatus> accounts;
+}
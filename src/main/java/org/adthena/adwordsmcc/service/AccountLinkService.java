@@ -1,199 +1,373 @@
 package org.adthena.adwordsmcc.service;
 
-import com.google.ads.googleads.lib.GoogleAdsClient;
 import com.google.ads.googleads.v18.enums.ManagerLinkStatusEnum.ManagerLinkStatus;
 import com.google.ads.googleads.v18.services.CustomerClientLinkOperation;
 import com.google.ads.googleads.v18.services.CustomerClientLinkServiceClient;
 import com.google.ads.googleads.v18.services.CustomerManagerLinkOperation;
 import com.google.ads.googleads.v18.services.CustomerManagerLinkServiceClient;
 import com.google.ads.googleads.v18.services.GoogleAdsRow;
-import com.google.ads.googleads.v18.services.GoogleAdsServiceClient;
 import com.google.ads.googleads.v18.services.MutateCustomerClientLinkResponse;
 import com.google.ads.googleads.v18.services.MutateCustomerManagerLinkResponse;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamRequest;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamResponse;
-import com.google.api.gax.rpc.ServerStream;
-import com.google.auth.oauth2.UserCredentials;
+import com.google.api.gax.rpc.ApiException;
 import com.google.protobuf.FieldMask;
-import org.adthena.adwordsmcc.model.LinkResponse;
+import jakarta.annotation.PostConstruct;
+import org.adthena.adwordsmcc.model.BulkLinkResponse;
+import org.adthena.adwordsmcc.model.ClientLinkResult;
+import org.adthena.adwordsmcc.util.BoundedFanOut;
+import org.adthena.adwordsmcc.util.RatePacer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Service for linking client accounts to manager accounts.
+ * Operations take any number of client IDs and report a result per client. Mutations from all
+ * callers share one pacer so link traffic stays under the configured rate.
  */
 @Service
 public class AccountLinkService {
 
-    @Value("${google.ads.developer-token}")
-    private String developerToken;
+    @Autowired
+    private GoogleAdsClientRegistry clientRegistry;
 
-    @Value("${google.ads.client-id}")
-    private String clientId;
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
 
-    @Value("${google.ads.client-secret}")
-    private String clientSecret;
-
-    @Value("${google.ads.refresh-token}")
-    private String refreshToken;
+    @Autowired
+    private LinkStateIndex linkStateIndex;
 
     @Value("${google.ads.manager-id}")
     private String managerId;
 
+    @Value("${account-links.bulk.max-concurrency:8}")
+    private int bulkMaxConcurrency;
+
+    @Value("${account-links.bulk.timeout-seconds:120}")
+    private long bulkTimeoutSeconds;
+
+    @Value("${account-links.bulk.max-ids:5000}")
+    private int bulkMaxIds;
+
+    @Value("${account-links.max-operations-per-second:10}")
+    private double maxOperationsPerSecond;
+
+    private RatePacer mutatePacer;
+
+    @PostConstruct
+    void initPacer() {
+        mutatePacer = new RatePacer(maxOperationsPerSecond);
+    }
+
     /**
-     * Sends an invitation from the manager account to a client account.
+     * Sends invitations from the manager account to many client accounts. The customer client link
+     * mutate takes a single operation per call, so the calls share one client and run concurrently
+     * within the bulk limits. Duplicate IDs are sent once, malformed IDs are reported without a
+     * call, and a failure for one client does not affect the others.
      *
-     * @param clientCustomerId The ID of the client account
-     * @return LinkResponse containing the result of the operation
-     * @throws IOException if there's an error communicating with the API
+     * @param clientCustomerIds The client account IDs, with or without dashes
+     * @return One result per distinct client ID, in the order first given
+     * @throws IllegalArgumentException if no IDs or more than the bulk limit are given
      */
-    public LinkResponse sendInvitation(long clientCustomerId) throws IOException {
-        // Use the manager ID from application.properties
+    public BulkLinkResponse sendInvitations(List<String> clientCustomerIds) {
+        long start = System.currentTimeMillis();
         long managerIdValue = Long.parseLong(managerId);
-        // Create credentials
-        UserCredentials credentials = UserCredentials.newBuilder()
-            .setClientId(clientId)
-            .setClientSecret(clientSecret)
-            .setRefreshToken(refreshToken)
-            .build();
 
-        // Build the Google Ads client with manager account as login customer ID
-        GoogleAdsClient googleAdsClient = GoogleAdsClient.newBuilder()
-            .setCredentials(credentials)
-            .setDeveloperToken(developerToken)
-            .setLoginCustomerId(managerIdValue)
-            .build();
+        Map<String, ClientLinkResult> results = new LinkedHashMap<>();
+        List<Long> validIds = normalizeClientIds(clientCustomerIds, results);
 
-        // Create the operation to extend an invitation
-        CustomerClientLinkOperation.Builder clientLinkOp = CustomerClientLinkOperation.newBuilder();
-        clientLinkOp
-            .getCreateBuilder()
-            .setStatus(ManagerLinkStatus.PENDING)
-            .setClientCustomer("customers/" + clientCustomerId);
+        CustomerClientLinkServiceClient customerClientLinkServiceClient =
+            clientRegistry.getCustomerClientLinkServiceClient(managerIdValue);
 
-        String pendingLinkResourceName;
-
-        try (CustomerClientLinkServiceClient customerClientLinkServiceClient =
-            googleAdsClient.getLatestVersion().createCustomerClientLinkServiceClient()) {
-            MutateCustomerClientLinkResponse response =
-                customerClientLinkServiceClient.mutateCustomerClientLink(
-                    String.valueOf(managerIdValue), clientLinkOp.build());
-
-            pendingLinkResourceName = response.getResult().getResourceName();
-
-            return new LinkResponse(
-                true,
-                String.format(
-                    "Extended an invitation from customer %s to customer %s with client link resource name %s",
-                    managerIdValue, clientCustomerId, pendingLinkResourceName),
-                pendingLinkResourceName);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return new LinkResponse(
+        List<ClientLinkResult> sent = BoundedFanOut.map(
+            validIds,
+            bulkMaxConcurrency,
+            bulkTimeout(validIds.size()),
+            clientCustomerId -> {
+                awaitMutateSlot();
+                String resourceName = extendInvitation(customerClientLinkServiceClient, managerIdValue, clientCustomerId);
+                linkStateIndex.record(clientCustomerId, ManagerLinkStatus.PENDING, managerLinkIdOf(resourceName));
+                return new ClientLinkResult(String.valueOf(clientCustomerId), true, "Invitation sent", resourceName, false);
+            },
+            (clientCustomerId, failure) -> new ClientLinkResult(
+                String.valueOf(clientCustomerId),
                 false,
-                "Failed to send invitation: " + e.getMessage(),
-                null);
+                failure instanceof TimeoutException
+                    ? "Timed out; the invitation may still have been sent"
+                    : "Failed to send invitation: " + failure.getMessage(),
+                null,
+                isRetryable(failure)));
+        for (ClientLinkResult result : sent) {
+            results.put(result.getClientCustomerId(), result);
         }
+        invalidateCachedLinks();
+
+        return toBulkResponse(managerIdValue, results, start);
     }
 
     /**
-     * Accepts an invitation from a client account to the manager account.
+     * Accepts pending invitations from the manager account for many client accounts. Pending links
+     * are taken from the link-state index; only when it does not know of a pending invitation for
+     * some clients is every pending link under the manager read with one query. The per-client
+     * acceptances then run concurrently within the bulk limits. Clients without a pending
+     * invitation are reported without a call.
      *
-     * @param clientCustomerId The ID of the client account
-     * @return LinkResponse containing the result of the operation
-     * @throws IOException if there's an error communicating with the API
+     * @param clientCustomerIds The client account IDs, with or without dashes
+     * @return One result per distinct client ID, in the order first given
+     * @throws IllegalArgumentException if no IDs or more than the bulk limit are given
+     * @throws IOException if the pending invitations cannot be read
      */
-    public LinkResponse acceptInvitation(long clientCustomerId) throws IOException {
-        // Use the manager ID from application.properties
+    public BulkLinkResponse acceptInvitations(List<String> clientCustomerIds) throws IOException {
+        long start = System.currentTimeMillis();
         long managerIdValue = Long.parseLong(managerId);
-        // Create credentials
-        UserCredentials credentials = UserCredentials.newBuilder()
-            .setClientId(clientId)
-            .setClientSecret(clientSecret)
-            .setRefreshToken(refreshToken)
-            .build();
 
-        // First, build the Google Ads client with manager account as login customer ID
-        // to find the manager_link_id
-        GoogleAdsClient googleAdsClient = GoogleAdsClient.newBuilder()
-            .setCredentials(credentials)
-            .setDeveloperToken(developerToken)
-            .setLoginCustomerId(managerIdValue)
-            .build();
+        Map<String, ClientLinkResult> results = new LinkedHashMap<>();
+        List<Long> validIds = normalizeClientIds(clientCustomerIds, results);
+
+        Map<Long, Long> pendingLinks = new HashMap<>();
+        List<Long> unindexedIds = new ArrayList<>();
+        for (Long clientCustomerId : validIds) {
+            long managerLinkId = linkStateIndex.pendingManagerLinkId(clientCustomerId);
+            if (managerLinkId >= 0) {
+                pendingLinks.put(clientCustomerId, managerLinkId);
+            } else {
+                unindexedIds.add(clientCustomerId);
+            }
+        }
 
-        // Find the pending link
-        String query = String.format(
-            "SELECT customer_client_link.manager_link_id FROM customer_client_link " +
-                "WHERE customer_client_link.client_customer = 'customers/%s' " +
-                "AND customer_client_link.status = 'PENDING'",
-            clientCustomerId);
-
-        Long managerLinkId = null;
-        try (GoogleAdsServiceClient googleAdsServiceClient =
-            googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
-            ServerStream<SearchGoogleAdsStreamResponse> stream =
-                googleAdsServiceClient.searchStreamCallable().call(
-                    SearchGoogleAdsStreamRequest.newBuilder()
-                        .setCustomerId(String.valueOf(managerIdValue))
-                        .setQuery(query)
-                        .build());
-
-            for (SearchGoogleAdsStreamResponse response : stream) {
-                if (response.getResultsCount() > 0) {
-                    GoogleAdsRow result = response.getResults(0);
-                    managerLinkId = result.getCustomerClientLink().getManagerLinkId();
-                    break;
+        if (!unindexedIds.isEmpty()) {
+            // The index may predate invitations sent elsewhere, so misses are checked live
+            Map<Long, Long> livePendingLinks;
+            try {
+                livePendingLinks = findPendingLinks(managerIdValue);
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new IOException("Failed to find pending invitations: " + e.getMessage(), e);
+            }
+            for (Long clientCustomerId : unindexedIds) {
+                Long managerLinkId = livePendingLinks.get(clientCustomerId);
+                if (managerLinkId != null) {
+                    pendingLinks.put(clientCustomerId, managerLinkId);
+                    linkStateIndex.record(clientCustomerId, ManagerLinkStatus.PENDING, managerLinkId);
                 }
             }
+        }
 
-            if (managerLinkId == null) {
-                return new LinkResponse(
+        List<Long> pendingIds = new ArrayList<>();
+        for (Long clientCustomerId : validIds) {
+            if (pendingLinks.containsKey(clientCustomerId)) {
+                pendingIds.add(clientCustomerId);
+            } else {
+                results.put(String.valueOf(clientCustomerId), new ClientLinkResult(
+                    String.valueOf(clientCustomerId),
                     false,
                     "No pending invitation found from manager " + managerIdValue + " to client " + clientCustomerId,
-                    null);
+                    null,
+                    false));
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return new LinkResponse(
+        }
+
+        // The client accepts with its own direct access, so the shared stub without a
+        // login-customer-id header is used instead of building one client per customer
+        CustomerManagerLinkServiceClient clientManagerLinkServiceClient =
+            clientRegistry.getCustomerManagerLinkServiceClient(null);
+
+        List<ClientLinkResult> accepted = BoundedFanOut.map(
+            pendingIds,
+            bulkMaxConcurrency,
+            bulkTimeout(pendingIds.size()),
+            clientCustomerId -> {
+                awaitMutateSlot();
+                long managerLinkId = pendingLinks.get(clientCustomerId);
+                String resourceName = acceptLink(clientManagerLinkServiceClient, managerIdValue, clientCustomerId, managerLinkId);
+                linkStateIndex.record(clientCustomerId, ManagerLinkStatus.ACTIVE, managerLinkId);
+                return new ClientLinkResult(String.valueOf(clientCustomerId), true, "Invitation accepted", resourceName, false);
+            },
+            (clientCustomerId, failure) -> new ClientLinkResult(
+                String.valueOf(clientCustomerId),
                 false,
-                "Failed to find pending invitation: " + e.getMessage(),
-                null);
+                failure instanceof TimeoutException
+                    ? "Timed out; the invitation may still have been accepted"
+                    : "Failed to accept invitation: " + failure.getMessage(),
+                null,
+                isRetryable(failure)));
+        for (ClientLinkResult result : accepted) {
+            results.put(result.getClientCustomerId(), result);
+        }
+        invalidateCachedLinks();
+
+        return toBulkResponse(managerIdValue, results, start);
+    }
+
+    /**
+     * Checks the number of IDs against the bulk limit without calling the API.
+     *
+     * @throws IllegalArgumentException if no IDs or more than the bulk limit are given
+     */
+    public void checkBulkSize(List<String> clientCustomerIds) {
+        if (clientCustomerIds == null || clientCustomerIds.isEmpty()) {
+            throw new IllegalArgumentException("No client customer IDs given");
+        }
+        if (clientCustomerIds.size() > bulkMaxIds) {
+            throw new IllegalArgumentException("At most " + bulkMaxIds + " client customer IDs can be linked per request");
         }
+    }
 
-        // Create a new client with the client customer ID as the login customer ID
-        GoogleAdsClient clientAdsClient = googleAdsClient.toBuilder()
-            .setLoginCustomerId(clientCustomerId)
+    /**
+     * Reads every pending client link under the manager, keyed by client ID with the manager link ID as value.
+     */
+    private Map<Long, Long> findPendingLinks(long managerIdValue) {
+        String query = "SELECT customer_client_link.client_customer, customer_client_link.manager_link_id " +
+            "FROM customer_client_link " +
+            "WHERE customer_client_link.status = 'PENDING'";
+
+        Map<Long, Long> pendingLinks = new HashMap<>();
+        for (GoogleAdsRow row : queryExecutor.searchLive(managerIdValue, String.valueOf(managerIdValue), query)) {
+            String clientResourceName = row.getCustomerClientLink().getClientCustomer();
+            long clientCustomerId = Long.parseLong(clientResourceName.substring(clientResourceName.lastIndexOf('/') + 1));
+            pendingLinks.putIfAbsent(clientCustomerId, row.getCustomerClientLink().getManagerLinkId());
+        }
+        return pendingLinks;
+    }
+
+    /**
+     * Drops cached link and hierarchy reads, which no longer reflect the manager's links.
+     */
+    private void invalidateCachedLinks() {
+        queryExecutor.invalidateResource("customer_client_link");
+        queryExecutor.invalidateResource("customer_manager_link");
+        queryExecutor.invalidateResource("customer_client");
+    }
+
+    /**
+     * Sets the client's side of a pending manager link to active and returns the link's resource name.
+     */
+    private String acceptLink(CustomerManagerLinkServiceClient clientManagerLinkServiceClient,
+                              long managerIdValue, long clientCustomerId, long managerLinkId) {
+        // Create a simple update operation with just the resource name and status
+        CustomerManagerLinkOperation managerLinkOp = CustomerManagerLinkOperation.newBuilder()
+            .setUpdateMask(FieldMask.newBuilder().addPaths("status").build())
+            .setUpdate(
+                com.google.ads.googleads.v18.resources.CustomerManagerLink.newBuilder()
+                    .setResourceName(String.format("customers/%s/customerManagerLinks/%s~%s", clientCustomerId, managerIdValue, managerLinkId))
+                    .setStatus(ManagerLinkStatus.ACTIVE)
+                    .build())
             .build();
 
-        try (CustomerManagerLinkServiceClient clientManagerLinkServiceClient =
-            clientAdsClient.getLatestVersion().createCustomerManagerLinkServiceClient()) {
-            // Create a simple update operation with just the resource name and status
-            CustomerManagerLinkOperation managerLinkOp = CustomerManagerLinkOperation.newBuilder()
-                .setUpdateMask(FieldMask.newBuilder().addPaths("status").build())
-                .setUpdate(
-                    com.google.ads.googleads.v18.resources.CustomerManagerLink.newBuilder()
-                        .setResourceName(String.format("customers/%s/customerManagerLinks/%s~%s", clientCustomerId, managerIdValue, managerLinkId))
-                        .setStatus(ManagerLinkStatus.ACTIVE)
-                        .build())
-                .build();
-
-            MutateCustomerManagerLinkResponse response =
-                clientManagerLinkServiceClient.mutateCustomerManagerLink(
-                    String.valueOf(clientCustomerId), Arrays.asList(managerLinkOp));
-
-            return new LinkResponse(
-                true,
-                "Client accepted invitation with resource name " + response.getResults(0).getResourceName(),
-                response.getResults(0).getResourceName());
-        } catch (Exception e) {
-            e.printStackTrace();
-            return new LinkResponse(
-                false,
-                "Failed to accept invitation: " + e.getMessage(),
-                null);
+        MutateCustomerManagerLinkResponse response =
+            clientManagerLinkServiceClient.mutateCustomerManagerLink(
+                String.valueOf(clientCustomerId), Arrays.asList(managerLinkOp));
+
+        return response.getResults(0).getResourceName();
+    }
+
+    /**
+     * Creates a pending client link from the manager to the client and returns its resource name.
+     */
+    private String extendInvitation(CustomerClientLinkServiceClient customerClientLinkServiceClient,
+                                    long managerIdValue, long clientCustomerId) {
+        // Create the operation to extend an invitation
+        CustomerClientLinkOperation.Builder clientLinkOp = CustomerClientLinkOperation.newBuilder();
+        clientLinkOp
+            .getCreateBuilder()
+            .setStatus(ManagerLinkStatus.PENDING)
+            .setClientCustomer("customers/" + clientCustomerId);
+
+        MutateCustomerClientLinkResponse response =
+            customerClientLinkServiceClient.mutateCustomerClientLink(
+                String.valueOf(managerIdValue), clientLinkOp.build());
+
+        return response.getResult().getResourceName();
+    }
+
+    /**
+     * Extracts the manager link ID from a link resource name such as
+     * {@code customers/1/customerClientLinks/2~3}.
+     */
+    private long managerLinkIdOf(String linkResourceName) {
+        return Long.parseLong(linkResourceName.substring(linkResourceName.lastIndexOf('~') + 1));
+    }
+
+    /**
+     * Waits for the pacer. A task interrupted because its batch timed out fails here, so it never
+     * sends its mutation after the batch has been reported.
+     */
+    private void awaitMutateSlot() {
+        try {
+            mutatePacer.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to send a link mutation", e);
+        }
+    }
+
+    /**
+     * The batch deadline, stretched by the time the pacer needs to let every call through.
+     */
+    private Duration bulkTimeout(int operations) {
+        return Duration.ofSeconds(bulkTimeoutSeconds).plus(mutatePacer.durationFor(operations));
+    }
+
+    /**
+     * Only failures the API marks as transient are worth retrying. A call cut off by the batch
+     * deadline may already have been applied, so it is not retried.
+     */
+    private boolean isRetryable(Throwable failure) {
+        return failure instanceof ApiException && ((ApiException) failure).isRetryable();
+    }
+
+    /**
+     * Strips dashes from the given IDs and drops duplicates. Malformed IDs get a failed result
+     * in {@code results}; valid IDs get a placeholder so results keep the order IDs were given in.
+     */
+    private List<Long> normalizeClientIds(List<String> clientCustomerIds, Map<String, ClientLinkResult> results) {
+        checkBulkSize(clientCustomerIds);
+
+        List<Long> validIds = new ArrayList<>();
+        for (String rawId : clientCustomerIds) {
+            String key = resultKey(rawId);
+            if (!key.matches("\\d{1,18}")) {
+                results.putIfAbsent(key, new ClientLinkResult(key, false, "Invalid client customer ID", null, false));
+            } else if (!results.containsKey(key)) {
+                results.put(key, null);
+                validIds.add(Long.parseLong(key));
+            }
+        }
+        return validIds;
+    }
+
+    /**
+     * The client ID a result is reported under for the given input: the ID without dashes when
+     * it is valid, otherwise the trimmed input.
+     */
+    public static String resultKey(String rawId) {
+        String trimmed = rawId == null ? "" : rawId.trim();
+        String normalized = trimmed.replace("-", "");
+        return normalized.matches("\\d{1,18}") ? normalized : trimmed;
+    }
+
+    private BulkLinkResponse toBulkResponse(long managerIdValue, Map<String, ClientLinkResult> results, long start) {
+        int succeeded = 0;
+        for (ClientLinkResult result : results.values()) {
+            if (result.isSuccess()) {
+                succeeded++;
+            }
         }
+        return new BulkLinkResponse(
+            String.valueOf(managerIdValue),
+            results.size(),
+            succeeded,
+            results.size() - succeeded,
+            System.currentTimeMillis() - start,
+            new ArrayList<>(results.values()));
     }
 }
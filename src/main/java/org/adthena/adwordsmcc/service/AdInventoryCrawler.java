@@ -0,0 +1,401 @@
+package org.adthena.adwordsmcc.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.adthena.adwordsmcc.model.AdInfo;
+import org.adthena.adwordsmcc.service.CustomerHierarchyResolver.ClientAccount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crawls the enabled ads of every client account under a manager into a local NDJSON file.
+ * Accounts are crawled by a bounded worker pool. Each finished account's ads are appended to the
+ * output in one block, then the account and the output length are appended to a checkpoint log.
+ * A crawl started again after a crash or restart truncates the output back to the last checkpoint
+ * and skips the accounts already recorded there.
+ */
+@Service
+public class AdInventoryCrawler {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdInventoryCrawler.class);
+
+    private static final String OUTPUT_FILE = "ads.ndjson";
+    private static final String CHECKPOINT_FILE = "checkpoint.log";
+    private static final String COMPLETE_MARKER = "COMPLETE";
+    private static final int MAX_RECENT_ERRORS = 20;
+
+    enum State { RUNNING, STOPPING, STOPPED, COMPLETED, COMPLETED_WITH_ERRORS, FAILED }
+
+    @Value("${ad-inventory.directory:${java.io.tmpdir}/adwords-mcc/ad-inventory}")
+    private String directory;
+
+    @Value("${ad-inventory.max-workers:8}")
+    private int maxWorkers;
+
+    @Value("${ad-inventory.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${ad-inventory.resume-on-startup:true}")
+    private boolean resumeOnStartup;
+
+    @Autowired
+    private CustomerHierarchyResolver hierarchyResolver;
+
+    @Autowired
+    private AdService adService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final ConcurrentMap<String, CrawlJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService coordinator = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * A crawl for one manager and its counters.
+     */
+    private static final class CrawlJob {
+        private final String managerId;
+        private final Path dir;
+        private final long startedAtMillis = System.currentTimeMillis();
+        private final AtomicInteger accountsCompleted = new AtomicInteger();
+        private final AtomicInteger accountsFailed = new AtomicInteger();
+        private final AtomicInteger retries = new AtomicInteger();
+        private final AtomicLong adsWritten = new AtomicLong();
+        private final Deque<String> recentErrors = new ArrayDeque<>();
+        private volatile State state = State.RUNNING;
+        private volatile int accountsTotal;
+        private volatile int accountsResumed;
+        private volatile long finishedAtMillis;
+        private volatile boolean stopRequested;
+
+        private CrawlJob(String managerId, Path dir) {
+            this.managerId = managerId;
+            this.dir = dir;
+        }
+
+        private void recordError(String message) {
+            synchronized (recentErrors) {
+                recentErrors.addLast(message);
+                if (recentErrors.size() > MAX_RECENT_ERRORS) {
+                    recentErrors.removeFirst();
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (CrawlJob job : jobs.values()) {
+            job.stopRequested = true;
+        }
+        coordinator.shutdownNow();
+    }
+
+    /**
+     * Resumes crawls that were interrupted before they completed.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void resumeInterruptedCrawls() {
+        Path root = Paths.get(directory);
+        if (!resumeOnStartup || !Files.isDirectory(root)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> crawlDirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path crawlDir : crawlDirs) {
+                if (Files.exists(crawlDir.resolve(CHECKPOINT_FILE)) && !Files.exists(crawlDir.resolve(COMPLETE_MARKER))) {
+                    logger.info("Resuming interrupted ad inventory crawl for manager {}", crawlDir.getFileName());
+                    start(crawlDir.getFileName().toString(), false);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Could not resume interrupted ad inventory crawls: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Starts or resumes a crawl. A crawl that is already running is left as it is.
+     *
+     * @param managerId The manager whose client accounts are crawled
+     * @param restart   Whether to discard earlier checkpoints and output and start from scratch
+     * @return The crawl's status
+     */
+    public synchronized Map<String, Object> start(String managerId, boolean restart) throws IOException {
+        String key = String.valueOf(Long.parseLong(managerId));
+        CrawlJob existing = jobs.get(key);
+        if (existing != null && (existing.state == State.RUNNING || existing.state == State.STOPPING)) {
+            return status(existing);
+        }
+
+        Path dir = Paths.get(directory, key);
+        if (restart) {
+            Files.deleteIfExists(dir.resolve(OUTPUT_FILE));
+            Files.deleteIfExists(dir.resolve(CHECKPOINT_FILE));
+        }
+        Files.deleteIfExists(dir.resolve(COMPLETE_MARKER));
+
+        CrawlJob job = new CrawlJob(key, dir);
+        jobs.put(key, job);
+        coordinator.execute(() -> run(job));
+        return status(job);
+    }
+
+    /**
+     * Asks a running crawl to stop once in-flight accounts are abandoned. Finished accounts stay
+     * checkpointed, so starting the crawl again resumes it.
+     *
+     * @return The crawl's status, or null if there is no such crawl
+     */
+    public Map<String, Object> stop(String managerId) {
+        CrawlJob job = jobs.get(String.valueOf(Long.parseLong(managerId)));
+        if (job == null) {
+            return null;
+        }
+        if (job.state == State.RUNNING) {
+            job.stopRequested = true;
+            job.state = State.STOPPING;
+        }
+        return status(job);
+    }
+
+    /**
+     * @return The crawl's status, or null if there is no such crawl
+     */
+    public Map<String, Object> getStatus(String managerId) {
+        CrawlJob job = jobs.get(String.valueOf(Long.parseLong(managerId)));
+        return job != null ? status(job) : null;
+    }
+
+    public List<Map<String, Object>> getAllStatuses() {
+        List<Map<String, Object>> statuses = new ArrayList<>();
+        for (CrawlJob job : jobs.values()) {
+            statuses.add(status(job));
+        }
+        return statuses;
+    }
+
+    private void run(CrawlJob job) {
+        try {
+            Files.createDirectories(job.dir);
+            Set<String> checkpointed = restoreCheckpoint(job.dir);
+
+            Long loginCustomerId = Long.parseLong(job.managerId);
+            List<ClientAccount> accounts = hierarchyResolver.listClientAccounts(loginCustomerId, job.managerId);
+
+            List<ClientAccount> pending = new ArrayList<>();
+            for (ClientAccount account : accounts) {
+                if (!checkpointed.contains(account.customerId())) {
+                    pending.add(account);
+                }
+            }
+            job.accountsTotal = accounts.size();
+            job.accountsResumed = accounts.size() - pending.size();
+            logger.info("Crawling ads for {} of {} accounts under manager {}", pending.size(), accounts.size(), job.managerId);
+
+            try (FileChannel output = FileChannel.open(job.dir.resolve(OUTPUT_FILE),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                 FileChannel checkpoint = FileChannel.open(job.dir.resolve(CHECKPOINT_FILE),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                 ExecutorService workers = Executors.newFixedThreadPool(
+                     Math.max(1, maxWorkers), Thread.ofVirtual().name("ad-inventory-" + job.managerId + "-", 0).factory())) {
+
+                for (ClientAccount account : pending) {
+                    workers.execute(() -> crawlAccount(job, account, loginCustomerId, output, checkpoint));
+                }
+            }
+
+            if (job.stopRequested) {
+                job.state = State.STOPPED;
+            } else if (job.accountsFailed.get() > 0) {
+                job.state = State.COMPLETED_WITH_ERRORS;
+            } else {
+                Files.createFile(job.dir.resolve(COMPLETE_MARKER));
+                job.state = State.COMPLETED;
+            }
+        } catch (Exception e) {
+            logger.error("Ad inventory crawl for manager {} failed", job.managerId, e);
+            job.recordError(e.getMessage());
+            job.state = State.FAILED;
+        } finally {
+            job.finishedAtMillis = System.currentTimeMillis();
+            logger.info("Ad inventory crawl for manager {} ended as {}: {} accounts, {} ads, {} failures",
+                job.managerId, job.state, job.accountsCompleted.get(), job.adsWritten.get(), job.accountsFailed.get());
+        }
+    }
+
+    /**
+     * Crawls one account, retrying failures, and commits its ads and checkpoint together.
+     */
+    private void crawlAccount(CrawlJob job, ClientAccount account, Long loginCustomerId, FileChannel output, FileChannel checkpoint) {
+        for (int attempt = 1; attempt <= maxAttempts && !job.stopRequested; attempt++) {
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                long count;
+                try (JsonGenerator generator = objectMapper.getFactory().createGenerator(buffer)) {
+                    generator.setRootValueSeparator(null);
+                    count = adService.streamEnabledAdsWithFinalUrls(account.customerId(), loginCustomerId, adInfo -> {
+                        if (job.stopRequested) {
+                            throw new InterruptedIOException("Crawl stopped");
+                        }
+                        writeAd(generator, account.customerId(), adInfo);
+                    });
+                }
+
+                commit(output, checkpoint, account.customerId(), buffer.toByteArray());
+                job.adsWritten.addAndGet(count);
+                job.accountsCompleted.incrementAndGet();
+                return;
+            } catch (InterruptedIOException e) {
+                return;
+            } catch (Exception e) {
+                if (attempt == maxAttempts) {
+                    logger.warn("Giving up on account {} after {} attempts: {}", account.customerId(), attempt, e.getMessage());
+                    job.accountsFailed.incrementAndGet();
+                    job.recordError(account.customerId() + ": " + e.getMessage());
+                    return;
+                }
+                job.retries.incrementAndGet();
+                try {
+                    Thread.sleep(1000L * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void writeAd(JsonGenerator generator, String customerId, AdInfo adInfo) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("customerId", customerId);
+        generator.writeNumberField("adId", adInfo.getAdId());
+        generator.writeStringField("adName", adInfo.getAdName());
+        generator.writeArrayFieldStart("finalUrls");
+        for (String finalUrl : adInfo.getFinalUrls()) {
+            generator.writeString(finalUrl);
+        }
+        generator.writeEndArray();
+        generator.writeStringField("status", adInfo.getStatus());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Appends an account's ads, then records the account with the output length that includes them.
+     * Writes from all workers are serialized so each checkpoint offset ends on an account boundary.
+     */
+    private synchronized void commit(FileChannel output, FileChannel checkpoint, String customerId, byte[] ads) throws IOException {
+        writeFully(output, ByteBuffer.wrap(ads));
+        output.force(false);
+
+        String line = customerId + "\t" + output.size() + "\n";
+        writeFully(checkpoint, ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)));
+        checkpoint.force(false);
+    }
+
+    /**
+     * Reads the finished accounts from the checkpoint log. A torn final checkpoint line and any
+     * output written after the last complete checkpoint are cut off.
+     */
+    private Set<String> restoreCheckpoint(Path dir) throws IOException {
+        Set<String> checkpointed = new HashSet<>();
+        Path checkpointFile = dir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpointFile)) {
+            return checkpointed;
+        }
+
+        byte[] content = Files.readAllBytes(checkpointFile);
+        int completeLength = 0;
+        long outputLength = 0;
+        int lineStart = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != '\n') {
+                continue;
+            }
+            String[] fields = new String(content, lineStart, i - lineStart, StandardCharsets.US_ASCII).split("\t");
+            checkpointed.add(fields[0]);
+            outputLength = Long.parseLong(fields[1]);
+            lineStart = i + 1;
+            completeLength = lineStart;
+        }
+
+        if (completeLength < content.length) {
+            try (FileChannel channel = FileChannel.open(checkpointFile, StandardOpenOption.WRITE)) {
+                channel.truncate(completeLength);
+            }
+        }
+
+        Path outputFile = dir.resolve(OUTPUT_FILE);
+        if (Files.exists(outputFile) && Files.size(outputFile) > outputLength) {
+            logger.info("Discarding {} bytes of uncheckpointed output in {}", Files.size(outputFile) - outputLength, outputFile);
+            try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.WRITE)) {
+                channel.truncate(outputLength);
+            }
+        }
+
+        return checkpointed;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private Map<String, Object> status(CrawlJob job) {
+        long endMillis = job.finishedAtMillis > 0 ? job.finishedAtMillis : System.currentTimeMillis();
+        double elapsedSeconds = Math.max(1, endMillis - job.startedAtMillis) / 1000.0;
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("managerId", job.managerId);
+        status.put("state", job.state.name());
+        status.put("startedAt", Instant.ofEpochMilli(job.startedAtMillis).toString());
+        status.put("elapsedMs", endMillis - job.startedAtMillis);
+        status.put("accountsTotal", job.accountsTotal);
+        status.put("accountsResumed", job.accountsResumed);
+        status.put("accountsCompleted", job.accountsCompleted.get());
+        status.put("accountsFailed", job.accountsFailed.get());
+        status.put("retries", job.retries.get());
+        status.put("adsWritten", job.adsWritten.get());
+        status.put("adsPerSecond", Math.round(job.adsWritten.get() / elapsedSeconds));
+        status.put("accountsPerMinute", Math.round(job.accountsCompleted.get() * 60 / elapsedSeconds));
+        synchronized (job.recentErrors) {
+            status.put("recentErrors", new ArrayList<>(job.recentErrors));
+        }
+        status.put("outputFile", job.dir.resolve(OUTPUT_FILE).toString());
+        return status;
+    }
+}
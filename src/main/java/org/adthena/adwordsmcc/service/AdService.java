@@ -1,22 +1,19 @@
 package org.adthena.adwordsmcc.service;
 
-import com.google.ads.googleads.lib.GoogleAdsClient;
+import com.google.ads.googleads.v18.resources.Ad;
 import com.google.ads.googleads.v18.services.GoogleAdsRow;
-import com.google.ads.googleads.v18.services.GoogleAdsServiceClient;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamRequest;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamResponse;
-import com.google.api.gax.rpc.ServerStream;
-import com.google.auth.oauth2.AccessToken;
-import com.google.auth.oauth2.UserCredentials;
 import org.adthena.adwordsmcc.model.AdInfo;
-import org.springframework.beans.factory.annotation.Value;
+import org.adthena.adwordsmcc.model.AdPage;
+import org.adthena.adwordsmcc.util.FieldSelection;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.time.Instant;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Base64;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Simple service for retrieving ad information including final URLs.
@@ -24,17 +21,21 @@ import java.util.List;
 @Service
 public class AdService {
 
-    @Value("${google.ads.developer-token}")
-    private String developerToken;
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
 
-    @Value("${google.ads.client-id}")
-    private String clientId;
-
-    @Value("${google.ads.client-secret}")
-    private String clientSecret;
+    /**
+     * The AdInfo fields a caller can select with {@code fields=}.
+     */
+    public static final Set<String> AD_FIELDS = Set.of("adId", "adName", "finalUrls", "status");
 
-    @Value("${google.ads.refresh-token}")
-    private String refreshToken;
+    /**
+     * Receives ads one at a time as they come off the result stream.
+     */
+    @FunctionalInterface
+    public interface AdSink {
+        void accept(AdInfo adInfo) throws IOException;
+    }
 
     /**
      * Gets enabled ads with their final URLs for a specific customer account.
@@ -44,48 +45,127 @@ public class AdService {
      * @throws IOException if there's an error communicating with the API
      */
     public List<AdInfo> getEnabledAdsWithFinalUrls(String customerId) throws IOException {
-        // Create credentials using the properties
-        UserCredentials credentials = UserCredentials.newBuilder()
-            .setClientId(clientId)
-            .setClientSecret(clientSecret)
-            .setRefreshToken(refreshToken)
-            .build();
-
-        // Build the Google Ads client
-        GoogleAdsClient googleAdsClient = GoogleAdsClient.newBuilder()
-            .setCredentials(credentials)
-            .setDeveloperToken(developerToken)
-            .build();
+        return getEnabledAdsWithFinalUrls(customerId, FieldSelection.all());
+    }
 
+    /**
+     * Gets enabled ads with only the selected fields populated; the rest are left null.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @param fields     The AdInfo fields to read and return
+     * @return List of AdInfo objects
+     * @throws IOException if there's an error communicating with the API
+     */
+    public List<AdInfo> getEnabledAdsWithFinalUrls(String customerId, FieldSelection fields) throws IOException {
         // Create a list to store the ad information
         List<AdInfo> adInfoList = new ArrayList<>();
+        streamEnabledAdsWithFinalUrls(customerId, null, fields, adInfoList::add);
+        return adInfoList;
+    }
+
+    /**
+     * Passes each enabled ad with final URLs to the sink as it is read, without holding the result set.
+     * If the sink fails, for example because the client went away, the API stream is cancelled.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @param sink       Receives each ad
+     * @return The number of ads passed to the sink
+     * @throws IOException if there's an error communicating with the API or the sink fails
+     */
+    public long streamEnabledAdsWithFinalUrls(String customerId, AdSink sink) throws IOException {
+        return streamEnabledAdsWithFinalUrls(customerId, null, sink);
+    }
+
+    /**
+     * Streams enabled ads with final URLs as above, querying through the given login customer.
+     *
+     * @param customerId      The ID of the Google Ads customer account
+     * @param loginCustomerId The manager to query through, or null to omit the login-customer-id header
+     * @param sink            Receives each ad
+     * @return The number of ads passed to the sink
+     * @throws IOException if there's an error communicating with the API or the sink fails
+     */
+    public long streamEnabledAdsWithFinalUrls(String customerId, Long loginCustomerId, AdSink sink) throws IOException {
+        return streamEnabledAdsWithFinalUrls(customerId, loginCustomerId, FieldSelection.all(), sink);
+    }
+
+    /**
+     * Streams enabled ads with final URLs as above, reading only the selected fields.
+     *
+     * @param customerId      The ID of the Google Ads customer account
+     * @param loginCustomerId The manager to query through, or null to omit the login-customer-id header
+     * @param fields          The AdInfo fields to read and return
+     * @param sink            Receives each ad
+     * @return The number of ads passed to the sink
+     * @throws IOException if there's an error communicating with the API or the sink fails
+     */
+    public long streamEnabledAdsWithFinalUrls(String customerId, Long loginCustomerId, FieldSelection fields, AdSink sink) throws IOException {
+        long[] count = new long[1];
+
+        // Full ad lists feed exports and crawls and can be large, so they are always read live
+        // rather than copied into the shared query cache
+        try {
+            queryExecutor.streamLive(loginCustomerId, customerId, enabledAdsQuery(fields, false), row -> {
+                AdInfo adInfo = toAdInfo(row, fields);
+                if (adInfo != null) {
+                    sink.accept(adInfo);
+                    count[0]++;
+                }
+            });
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new IOException("Failed to retrieve ad information: " + e.getMessage(), e);
+        }
 
-        try (GoogleAdsServiceClient googleAdsServiceClient = googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
-            // Simple GAQL query to get enabled ads with their final URLs
-            String query = "SELECT ad_group_ad.ad.id, ad_group_ad.ad.name, ad_group_ad.ad.final_urls, ad_group_ad.status " +
-                "FROM ad_group_ad " +
-                "WHERE ad_group_ad.status = 'ENABLED'";
-
-            // Create the search request
-            SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
-                .setCustomerId(customerId)
-                .setQuery(query)
-                .build();
-
-            // Execute the search request
-            ServerStream<SearchGoogleAdsStreamResponse> stream = googleAdsServiceClient.searchStreamCallable().call(request);
-
-            // Process the results
-            for (SearchGoogleAdsStreamResponse response : stream) {
-                for (GoogleAdsRow row : response.getResultsList()) {
-                    Long adId = row.getAdGroupAd().getAd().getId();
-                    String adName = row.getAdGroupAd().getAd().getName();
-                    List<String> finalUrls = new ArrayList<>(row.getAdGroupAd().getAd().getFinalUrlsList());
-                    String status = row.getAdGroupAd().getStatus().name();
-
-                    // Only add ads with non-empty finalUrls
-                    if (!finalUrls.isEmpty()) {
-                        adInfoList.add(new AdInfo(adId, adName, finalUrls, status));
+        return count[0];
+    }
+
+    /**
+     * Gets one page of enabled ads with final URLs, ordered by ad ID and then ad group ID, since
+     * one ad can sit in several ad groups. Pages are keyed on the last (ad ID, ad group ID) seen
+     * rather than an offset, so the server holds nothing between pages. A page that resumes inside
+     * an ad's ad groups first reads that ad's remaining groups, then continues from the next ad, so
+     * it costs at most two bounded queries. A page can hold fewer ads than the page size because
+     * ads without final URLs are skipped.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @param cursor     The cursor returned with the previous page, or null for the first page
+     * @param pageSize   The maximum number of ads to read for this page
+     * @param fields     The AdInfo fields to read and return
+     * @return The page and the cursor for the next one
+     * @throws IOException if there's an error communicating with the API
+     */
+    public AdPage getEnabledAdsPage(String customerId, String cursor, int pageSize, FieldSelection fields) throws IOException {
+        long[] after = decodeCursor(cursor);
+        List<AdInfo> adInfoList = new ArrayList<>();
+        long[] last = after.clone();
+        int rows = 0;
+
+        try {
+            List<String> queries = new ArrayList<>();
+            if (after[1] < Long.MAX_VALUE) {
+                queries.add(enabledAdsQuery(fields, true) +
+                    " AND ad_group_ad.ad.id = " + after[0] +
+                    " AND ad_group.id > " + after[1] +
+                    " ORDER BY ad_group.id");
+            }
+            queries.add(enabledAdsQuery(fields, true) +
+                " AND ad_group_ad.ad.id > " + after[0] +
+                " ORDER BY ad_group_ad.ad.id, ad_group.id");
+
+            for (String query : queries) {
+                if (rows >= pageSize) {
+                    break;
+                }
+                for (GoogleAdsRow row : queryExecutor.search(null, customerId, query + " LIMIT " + (pageSize - rows))) {
+                    rows++;
+                    last[0] = row.getAdGroupAd().getAd().getId();
+                    last[1] = row.getAdGroup().getId();
+                    AdInfo adInfo = toAdInfo(row, fields);
+                    if (adInfo != null) {
+                        adInfoList.add(adInfo);
                     }
                 }
             }
@@ -94,6 +174,74 @@ public class AdService {
             throw new IOException("Failed to retrieve ad information: " + e.getMessage(), e);
         }
 
-        return adInfoList;
+        return new AdPage(adInfoList, rows < pageSize ? null : encodeCursor(last[0], last[1]));
+    }
+
+    /**
+     * Builds the enabled-ads query with only the columns the selected fields need.
+     * Final URLs are always read because ads without them are filtered out, and the ad and ad
+     * group IDs are read when paging because they are the page key.
+     */
+    private String enabledAdsQuery(FieldSelection fields, boolean paged) {
+        List<String> columns = new ArrayList<>();
+        if (paged || fields.includes("adId")) {
+            columns.add("ad_group_ad.ad.id");
+        }
+        if (paged) {
+            columns.add("ad_group.id");
+        }
+        if (fields.includes("adName")) {
+            columns.add("ad_group_ad.ad.name");
+        }
+        columns.add("ad_group_ad.ad.final_urls");
+        if (fields.includes("status")) {
+            columns.add("ad_group_ad.status");
+        }
+
+        return "SELECT " + String.join(", ", columns) + " " +
+            "FROM ad_group_ad " +
+            "WHERE ad_group_ad.status = 'ENABLED'";
+    }
+
+    /**
+     * Maps a result row to an AdInfo with only the selected fields set, or returns null for ads
+     * without final URLs.
+     */
+    private AdInfo toAdInfo(GoogleAdsRow row, FieldSelection fields) {
+        Ad ad = row.getAdGroupAd().getAd();
+
+        // Only keep ads with non-empty finalUrls
+        if (ad.getFinalUrlsCount() == 0) {
+            return null;
+        }
+        return new AdInfo(
+            fields.includes("adId") ? ad.getId() : null,
+            fields.includes("adName") ? ad.getName() : null,
+            fields.includes("finalUrls") ? new ArrayList<>(ad.getFinalUrlsList()) : null,
+            fields.includes("status") ? row.getAdGroupAd().getStatus().name() : null);
+    }
+
+    private String encodeCursor(long adId, long adGroupId) {
+        String key = adId + ":" + adGroupId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Returns the last (ad ID, ad group ID) of the previous page. A cursor from before ad group IDs
+     * were added holds only an ad ID and resumes after every ad group of that ad, as it used to.
+     */
+    private long[] decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return new long[] {0L, Long.MAX_VALUE};
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII).split(":", -1);
+            if (parts.length > 2) {
+                throw new IllegalArgumentException("too many parts");
+            }
+            return new long[] {Long.parseLong(parts[0]), parts.length == 2 ? Long.parseLong(parts[1]) : Long.MAX_VALUE};
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
     }
 }
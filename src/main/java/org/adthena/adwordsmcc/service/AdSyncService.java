@@ -0,0 +1,273 @@
+package org.adthena.adwordsmcc.service;
+
+import com.google.ads.googleads.v18.enums.AdGroupAdStatusEnum.AdGroupAdStatus;
+import com.google.ads.googleads.v18.enums.ChangeStatusOperationEnum.ChangeStatusOperation;
+import com.google.ads.googleads.v18.resources.Ad;
+import com.google.ads.googleads.v18.resources.AdGroupAd;
+import com.google.ads.googleads.v18.resources.ChangeStatus;
+import com.google.ads.googleads.v18.services.GoogleAdsRow;
+import org.adthena.adwordsmcc.model.AdInfo;
+import org.adthena.adwordsmcc.util.FieldSelection;
+import org.adthena.adwordsmcc.util.GaqlTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a local copy of each account's enabled ads with final URLs and brings it up to date with
+ * change_status instead of re-reading every ad. The first sync for an account is a full scan.
+ * Later syncs ask change_status for ads changed since the watermark, re-read only those ads by
+ * resource name, and apply the results in place. A full scan is repeated when the watermark falls
+ * outside change_status's lookback window or too many changes are reported to list them all.
+ */
+@Service
+public class AdSyncService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdSyncService.class);
+
+    private static final DateTimeFormatter CHANGE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // change_status only covers the last 90 days and must be queried with a LIMIT of at most 10,000
+    private static final int CHANGE_LOOKBACK_DAYS = 89;
+    private static final int CHANGE_LIMIT = 10000;
+    private static final int RESOURCE_NAMES_PER_QUERY = 500;
+
+    private static final String AD_FIELDS = "SELECT ad_group_ad.resource_name, ad_group_ad.ad.id, ad_group_ad.ad.name, " +
+        "ad_group_ad.ad.final_urls, ad_group_ad.status " +
+        "FROM ad_group_ad ";
+
+    private static final GaqlTemplate CHANGED_ADS_QUERY = GaqlTemplate.compile("changed-ads",
+        "SELECT change_status.resource_name, change_status.ad_group_ad, " +
+        "change_status.resource_status, change_status.last_change_date_time " +
+        "FROM change_status " +
+        "WHERE change_status.resource_type = 'AD_GROUP_AD' " +
+        "AND change_status.last_change_date_time >= {since:datetime} " +
+        "AND change_status.last_change_date_time <= {until:datetime} " +
+        "ORDER BY change_status.last_change_date_time " +
+        "LIMIT " + CHANGE_LIMIT);
+
+    private static final GaqlTemplate ADS_BY_RESOURCE_NAME_QUERY = GaqlTemplate.compile("ads-by-resource-name",
+        AD_FIELDS + "WHERE ad_group_ad.resource_name IN {resourceNames:string_list}");
+
+    @Value("${ad-sync.overlap-minutes:5}")
+    private long overlapMinutes;
+
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
+
+    private final ConcurrentMap<String, AccountAds> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * The local copy of one account's ads, keyed by ad_group_ad resource name.
+     */
+    private static final class AccountAds {
+        private final Map<String, AdInfo> ads = new LinkedHashMap<>();
+        private ZoneId timeZone;
+        private LocalDateTime watermark;
+        private long lastSyncAtMillis;
+        private String lastSyncMode;
+        private int lastChangesApplied;
+        private int fullSyncs;
+        private int incrementalSyncs;
+    }
+
+    /**
+     * Gets enabled ads with their final URLs, syncing the local copy first.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @return List of AdInfo objects
+     * @throws IOException if there's an error communicating with the API
+     */
+    public List<AdInfo> getEnabledAdsWithFinalUrls(String customerId) throws IOException {
+        return getEnabledAdsWithFinalUrls(customerId, FieldSelection.all());
+    }
+
+    /**
+     * Gets enabled ads from the synced copy with only the selected fields set. The copy itself
+     * always holds every field, so the selection only narrows the returned objects.
+     *
+     * @param customerId The ID of the Google Ads customer account
+     * @param fields     The AdInfo fields to return
+     * @return List of AdInfo objects
+     * @throws IOException if there's an error communicating with the API
+     */
+    public List<AdInfo> getEnabledAdsWithFinalUrls(String customerId, FieldSelection fields) throws IOException {
+        AccountAds account = accounts.computeIfAbsent(customerId, id -> new AccountAds());
+
+        synchronized (account) {
+            try {
+                if (account.watermark == null) {
+                    fullSync(customerId, account);
+                } else {
+                    incrementalSync(customerId, account);
+                }
+            } catch (Exception e) {
+                // The local copy may be half-applied, so the next request starts over with a full scan
+                account.watermark = null;
+                e.printStackTrace();
+                throw new IOException("Failed to sync ad information: " + e.getMessage(), e);
+            }
+
+            List<AdInfo> adInfoList = new ArrayList<>(account.ads.size());
+            for (AdInfo adInfo : account.ads.values()) {
+                adInfoList.add(new AdInfo(
+                    fields.includes("adId") ? adInfo.getAdId() : null,
+                    fields.includes("adName") ? adInfo.getAdName() : null,
+                    fields.includes("finalUrls") ? adInfo.getFinalUrls() : null,
+                    fields.includes("status") ? adInfo.getStatus() : null));
+            }
+            return adInfoList;
+        }
+    }
+
+    /**
+     * Gets the sync state of an account's local copy, or null if it has never been synced.
+     */
+    public Map<String, Object> getSyncStatus(String customerId) {
+        AccountAds account = accounts.get(customerId);
+        if (account == null) {
+            return null;
+        }
+
+        synchronized (account) {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("customerId", customerId);
+            status.put("ads", account.ads.size());
+            status.put("watermark", account.watermark != null ? account.watermark.format(CHANGE_TIME_FORMAT) : null);
+            status.put("timeZone", account.timeZone != null ? account.timeZone.getId() : null);
+            status.put("lastSyncAt", account.lastSyncAtMillis > 0 ? Instant.ofEpochMilli(account.lastSyncAtMillis).toString() : null);
+            status.put("lastSyncMode", account.lastSyncMode);
+            status.put("lastChangesApplied", account.lastChangesApplied);
+            status.put("fullSyncs", account.fullSyncs);
+            status.put("incrementalSyncs", account.incrementalSyncs);
+            return status;
+        }
+    }
+
+    /**
+     * Drops an account's local copy so the next request performs a full scan.
+     */
+    public void reset(String customerId) {
+        accounts.remove(customerId);
+    }
+
+    private void fullSync(String customerId, AccountAds account) throws IOException {
+        if (account.timeZone == null) {
+            account.timeZone = fetchTimeZone(customerId);
+        }
+        // change_status times are in the account's time zone; the overlap covers changes still being recorded
+        LocalDateTime syncStart = LocalDateTime.now(account.timeZone).minusMinutes(overlapMinutes);
+
+        // The local copy is this service's cache, so the shared query cache is bypassed
+        account.ads.clear();
+        queryExecutor.streamLive(null, customerId, AD_FIELDS + "WHERE ad_group_ad.status = 'ENABLED'", row -> {
+            AdInfo adInfo = toAdInfo(row.getAdGroupAd());
+            if (adInfo != null) {
+                account.ads.put(row.getAdGroupAd().getResourceName(), adInfo);
+            }
+        });
+
+        account.watermark = syncStart;
+        account.lastSyncAtMillis = System.currentTimeMillis();
+        account.lastSyncMode = "full";
+        account.lastChangesApplied = account.ads.size();
+        account.fullSyncs++;
+        logger.info("Full ad sync for {}: {} ads", customerId, account.ads.size());
+    }
+
+    private void incrementalSync(String customerId, AccountAds account) throws IOException {
+        LocalDateTime now = LocalDateTime.now(account.timeZone);
+        if (account.watermark.isBefore(now.minusDays(CHANGE_LOOKBACK_DAYS))) {
+            logger.info("Watermark for {} is outside the change_status window; running a full sync", customerId);
+            fullSync(customerId, account);
+            return;
+        }
+
+        GaqlTemplate.Binding changeQuery = CHANGED_ADS_QUERY.bind()
+            .set("since", account.watermark)
+            .set("until", now);
+
+        List<GoogleAdsRow> changes = queryExecutor.searchLive(null, customerId, changeQuery);
+        if (changes.size() >= CHANGE_LIMIT) {
+            logger.info("change_status for {} hit its {} row limit; running a full sync", customerId, CHANGE_LIMIT);
+            fullSync(customerId, account);
+            return;
+        }
+
+        Set<String> changedAds = new LinkedHashSet<>();
+        for (GoogleAdsRow row : changes) {
+            ChangeStatus changeStatus = row.getChangeStatus();
+            if (changeStatus.getResourceStatus() == ChangeStatusOperation.REMOVED) {
+                account.ads.remove(changeStatus.getAdGroupAd());
+            } else {
+                changedAds.add(changeStatus.getAdGroupAd());
+            }
+        }
+
+        // Re-read the changed ads; any that are no longer enabled or lost their final URLs are dropped
+        List<String> resourceNames = new ArrayList<>(changedAds);
+        for (int start = 0; start < resourceNames.size(); start += RESOURCE_NAMES_PER_QUERY) {
+            List<String> batch = resourceNames.subList(start, Math.min(start + RESOURCE_NAMES_PER_QUERY, resourceNames.size()));
+            Set<String> seen = new LinkedHashSet<>();
+            GaqlTemplate.Binding query = ADS_BY_RESOURCE_NAME_QUERY.bind()
+                .set("resourceNames", batch);
+
+            for (GoogleAdsRow row : queryExecutor.searchLive(null, customerId, query)) {
+                AdGroupAd adGroupAd = row.getAdGroupAd();
+                seen.add(adGroupAd.getResourceName());
+                AdInfo adInfo = adGroupAd.getStatus() == AdGroupAdStatus.ENABLED ? toAdInfo(adGroupAd) : null;
+                if (adInfo != null) {
+                    account.ads.put(adGroupAd.getResourceName(), adInfo);
+                } else {
+                    account.ads.remove(adGroupAd.getResourceName());
+                }
+            }
+            for (String resourceName : batch) {
+                if (!seen.contains(resourceName)) {
+                    account.ads.remove(resourceName);
+                }
+            }
+        }
+
+        account.watermark = now.minusMinutes(overlapMinutes);
+        account.lastSyncAtMillis = System.currentTimeMillis();
+        account.lastSyncMode = "incremental";
+        account.lastChangesApplied = changes.size();
+        account.incrementalSyncs++;
+        logger.info("Incremental ad sync for {}: {} changes, {} ads re-read", customerId, changes.size(), changedAds.size());
+    }
+
+    private ZoneId fetchTimeZone(String customerId) {
+        for (GoogleAdsRow row : queryExecutor.search(null, customerId, "SELECT customer.time_zone FROM customer")) {
+            return ZoneId.of(row.getCustomer().getTimeZone());
+        }
+        return ZoneId.of("UTC");
+    }
+
+    /**
+     * Maps an ad to an AdInfo, or returns null for ads without final URLs.
+     */
+    private AdInfo toAdInfo(AdGroupAd adGroupAd) {
+        Ad ad = adGroupAd.getAd();
+        if (ad.getFinalUrlsCount() == 0) {
+            return null;
+        }
+        return new AdInfo(ad.getId(), ad.getName(), new ArrayList<>(ad.getFinalUrlsList()), adGroupAd.getStatus().name());
+    }
+}
@@ -0,0 +1,292 @@
+package org.adthena.adwordsmcc.service;
+
+import com.google.ads.googleads.v18.resources.CustomerClient;
+import com.google.ads.googleads.v18.services.GoogleAdsRow;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.adthena.adwordsmcc.util.FieldSelection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Resolves account details and manager links for a set of accessible accounts in bulk.
+ * Each account that is not already covered by a fetched subtree issues one unfiltered
+ * customer_client query, which returns the account itself (level 0) and every account below it
+ * with name, currency, time zone and manager flag. Accounts covered by an earlier subtree cost
+ * no further queries, so accounts known from earlier calls to be top-level managers are fetched
+ * first.
+ */
+@Service
+public class CustomerHierarchyResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(CustomerHierarchyResolver.class);
+
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
+
+    /**
+     * Manager flag per account and, for accounts seen below a fetched root, that root, both learned
+     * from earlier subtrees. Only used to order fetches; results never come from here.
+     */
+    private final Map<String, Boolean> managerFlags = new ConcurrentHashMap<>();
+    private final Map<String, String> coveringRoots = new ConcurrentHashMap<>();
+
+    /**
+     * An accessible account with its details and the ID of its direct manager, if known.
+     */
+    public record ResolvedAccount(
+        String customerId,
+        String descriptiveName,
+        String currencyCode,
+        String timeZone,
+        boolean manager,
+        String parentId) {
+    }
+
+    /**
+     * A non-manager account somewhere below a manager.
+     */
+    public record ClientAccount(String customerId, String descriptiveName) {
+    }
+
+    private record SubtreeRow(
+        String customerId,
+        String descriptiveName,
+        String currencyCode,
+        String timeZone,
+        boolean manager,
+        int level) {
+    }
+
+    /**
+     * Resolves details and direct manager links for the given accounts.
+     *
+     * @param loginCustomerId       The manager to query through, or null to omit the login-customer-id header
+     * @param accessibleCustomerIds The accessible account IDs, in the order results should be returned
+     * @return One resolved account per input ID, in input order
+     */
+    public List<ResolvedAccount> resolve(Long loginCustomerId, List<String> accessibleCustomerIds) {
+        return resolve(loginCustomerId, accessibleCustomerIds, FieldSelection.all());
+    }
+
+    /**
+     * Resolves accounts as above, reading only the detail columns named in the selection
+     * ({@code descriptiveName}, {@code currencyCode}, {@code timeZone}). Unselected details are null.
+     */
+    public List<ResolvedAccount> resolve(Long loginCustomerId, List<String> accessibleCustomerIds, FieldSelection fields) {
+        String subtreeQuery = subtreeQuery(fields);
+        Map<String, List<SubtreeRow>> subtrees = new LinkedHashMap<>();
+        Map<String, SubtreeRow> details = new HashMap<>();
+        int queryCount = 0;
+
+        Set<String> inputIds = new HashSet<>(accessibleCustomerIds);
+        List<String> fetchOrder = new ArrayList<>(accessibleCustomerIds);
+        fetchOrder.sort(Comparator.comparingInt(customerId -> fetchRank(customerId, inputIds)));
+
+        for (String customerId : fetchOrder) {
+            if (details.containsKey(customerId)) {
+                continue;
+            }
+
+            queryCount++;
+            List<SubtreeRow> rows = fetchSubtree(loginCustomerId, customerId, subtreeQuery, fields);
+            if (rows.isEmpty()) {
+                details.put(customerId, new SubtreeRow(
+                    customerId,
+                    fields.includes("descriptiveName") ? "Unknown" : null,
+                    fields.includes("currencyCode") ? "USD" : null,
+                    fields.includes("timeZone") ? "UTC" : null,
+                    false,
+                    0));
+                continue;
+            }
+
+            subtrees.put(customerId, rows);
+            for (SubtreeRow row : rows) {
+                details.putIfAbsent(row.customerId(), row);
+                managerFlags.put(row.customerId(), row.manager());
+                if (row.level() > 0) {
+                    coveringRoots.put(row.customerId(), customerId);
+                }
+            }
+        }
+
+        Map<String, String> parents = resolveParents(subtrees);
+        Set<String> nestedIds = new HashSet<>();
+        for (List<SubtreeRow> rows : subtrees.values()) {
+            for (SubtreeRow row : rows) {
+                if (row.level() >= 2) {
+                    nestedIds.add(row.customerId());
+                }
+            }
+        }
+
+        List<ResolvedAccount> resolved = new ArrayList<>(accessibleCustomerIds.size());
+        for (String customerId : accessibleCustomerIds) {
+            SubtreeRow row = details.get(customerId);
+            String parentId = parents.get(customerId);
+
+            if (parentId == null && nestedIds.contains(customerId)) {
+                // Several managers sit at the parent's level, so the link is looked up directly
+                queryCount++;
+                parentId = findManagerForClient(loginCustomerId, customerId);
+            }
+
+            resolved.add(new ResolvedAccount(
+                customerId,
+                row.descriptiveName(),
+                row.currencyCode(),
+                row.timeZone(),
+                row.manager(),
+                parentId));
+        }
+
+        logger.info("Resolved {} accessible accounts with {} queries across {} subtrees",
+            accessibleCustomerIds.size(), queryCount, subtrees.size());
+
+        return resolved;
+    }
+
+    /**
+     * Lists the enabled non-manager accounts at any depth below a manager with one query.
+     * A non-manager ID lists just itself.
+     *
+     * @param loginCustomerId A login customer that can reach the manager
+     * @param managerId       The manager account ID
+     */
+    public List<ClientAccount> listClientAccounts(Long loginCustomerId, String managerId) {
+        List<ClientAccount> clientAccounts = new ArrayList<>();
+
+        String query = "SELECT customer_client.id, customer_client.descriptive_name " +
+            "FROM customer_client " +
+            "WHERE customer_client.manager = FALSE " +
+            "AND customer_client.status = 'ENABLED'";
+
+        for (GoogleAdsRow row : queryExecutor.search(loginCustomerId, managerId, query)) {
+            CustomerClient customerClient = row.getCustomerClient();
+            clientAccounts.add(new ClientAccount(String.valueOf(customerClient.getId()), customerClient.getDescriptiveName()));
+        }
+
+        return clientAccounts;
+    }
+
+    /**
+     * Orders fetches so that one query covers as many inputs as possible: managers not known to sit
+     * below another input first, then accounts not seen before, then everything else.
+     */
+    private int fetchRank(String customerId, Set<String> inputIds) {
+        if (inputIds.contains(coveringRoots.get(customerId))) {
+            return 2;
+        }
+        Boolean manager = managerFlags.get(customerId);
+        if (manager == null) {
+            return 1;
+        }
+        return manager ? 0 : 2;
+    }
+
+    /**
+     * Derives direct manager links from the fetched subtrees. Level 1 rows are exact children
+     * of their subtree root; deeper rows are attached to the only manager one level up when
+     * that manager is unambiguous.
+     */
+    private Map<String, String> resolveParents(Map<String, List<SubtreeRow>> subtrees) {
+        Map<String, String> parents = new HashMap<>();
+
+        for (Map.Entry<String, List<SubtreeRow>> subtree : subtrees.entrySet()) {
+            for (SubtreeRow row : subtree.getValue()) {
+                if (row.level() == 1) {
+                    parents.put(row.customerId(), subtree.getKey());
+                }
+            }
+        }
+
+        for (List<SubtreeRow> rows : subtrees.values()) {
+            Map<Integer, List<String>> managersByLevel = new HashMap<>();
+            for (SubtreeRow row : rows) {
+                if (row.manager()) {
+                    managersByLevel.computeIfAbsent(row.level(), level -> new ArrayList<>()).add(row.customerId());
+                }
+            }
+
+            for (SubtreeRow row : rows) {
+                if (row.level() >= 2) {
+                    List<String> candidates = managersByLevel.get(row.level() - 1);
+                    if (candidates != null && candidates.size() == 1) {
+                        parents.putIfAbsent(row.customerId(), candidates.get(0));
+                    }
+                }
+            }
+        }
+
+        return parents;
+    }
+
+    /**
+     * Builds the subtree query. ID, manager flag and level are always read because the links are
+     * derived from them; the detail columns are read only when selected.
+     */
+    private String subtreeQuery(FieldSelection fields) {
+        StringBuilder query = new StringBuilder("SELECT customer_client.id");
+        if (fields.includes("descriptiveName")) {
+            query.append(", customer_client.descriptive_name");
+        }
+        if (fields.includes("currencyCode")) {
+            query.append(", customer_client.currency_code");
+        }
+        if (fields.includes("timeZone")) {
+            query.append(", customer_client.time_zone");
+        }
+        query.append(", customer_client.manager, customer_client.level FROM customer_client");
+        return query.toString();
+    }
+
+    private List<SubtreeRow> fetchSubtree(Long loginCustomerId, String rootCustomerId,
+                                          String subtreeQuery, FieldSelection fields) {
+        List<SubtreeRow> rows = new ArrayList<>();
+
+        try {
+            for (GoogleAdsRow row : queryExecutor.search(loginCustomerId, rootCustomerId, subtreeQuery)) {
+                CustomerClient customerClient = row.getCustomerClient();
+                rows.add(new SubtreeRow(
+                    String.valueOf(customerClient.getId()),
+                    fields.includes("descriptiveName") ? customerClient.getDescriptiveName() : null,
+                    fields.includes("currencyCode") ? customerClient.getCurrencyCode() : null,
+                    fields.includes("timeZone") ? customerClient.getTimeZone() : null,
+                    customerClient.getManager(),
+                    (int) customerClient.getLevel()));
+            }
+        } catch (Exception e) {
+            logger.warn("Could not fetch customer_client subtree for {}: {}", rootCustomerId, e.getMessage());
+            rows.clear();
+        }
+
+        return rows;
+    }
+
+    private String findManagerForClient(Long loginCustomerId, String clientCustomerId) {
+        try {
+            String query = "SELECT customer_manager_link.manager_customer, customer_manager_link.status " +
+                          "FROM customer_manager_link " +
+                          "WHERE customer_manager_link.status = 'ACTIVE'";
+
+            for (GoogleAdsRow row : queryExecutor.search(loginCustomerId, clientCustomerId, query)) {
+                String managerResourceName = row.getCustomerManagerLink().getManagerCustomer();
+                return managerResourceName.substring(managerResourceName.lastIndexOf('/') + 1);
+            }
+        } catch (Exception e) {
+            // If we can't find the manager, just continue
+        }
+
+        return null;
+    }
+}
@@ -1,25 +1,31 @@
 package org.adthena.adwordsmcc.service;
 
-import com.google.ads.googleads.lib.GoogleAdsClient;
-import com.google.ads.googleads.v18.resources.Customer;
 import com.google.ads.googleads.v18.resources.CustomerUserAccess;
 import com.google.ads.googleads.v18.services.CustomerServiceClient;
 import com.google.ads.googleads.v18.services.GoogleAdsRow;
-import com.google.ads.googleads.v18.services.GoogleAdsServiceClient;
 import com.google.ads.googleads.v18.services.ListAccessibleCustomersRequest;
 import com.google.ads.googleads.v18.services.ListAccessibleCustomersResponse;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamRequest;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamResponse;
-import com.google.api.gax.rpc.ServerStream;
-import com.google.auth.oauth2.UserCredentials;
+import jakarta.annotation.PostConstruct;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
 import org.adthena.adwordsmcc.model.CustomerHierarchyNode;
 import org.adthena.adwordsmcc.model.GoogleAdsCustomer;
+import org.adthena.adwordsmcc.util.BoundedFanOut;
+import org.adthena.adwordsmcc.util.FieldSelection;
+import org.adthena.adwordsmcc.util.HierarchyForestBuilder;
+import org.adthena.adwordsmcc.util.SnapshotCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -30,21 +36,60 @@ import org.springframework.stereotype.Service;
 @Service
 public class CustomerService {
 
-    @Value("${google.ads.developer-token}")
-    private String developerToken;
+    private static final Logger logger = LoggerFactory.getLogger(CustomerService.class);
 
-    @Value("${google.ads.client-id}")
-    private String clientId;
+    private static final long LOGIN_CUSTOMER_ID = 5798658445L;
 
-    @Value("${google.ads.client-secret}")
-    private String clientSecret;
+    /**
+     * The GoogleAdsCustomer fields a caller can select with {@code fields=}.
+     */
+    public static final Set<String> CUSTOMER_FIELDS = Set.of("customerId", "resourceName", "accessRole");
 
-    @Value("${google.ads.refresh-token}")
-    private String refreshToken;
+    /**
+     * The CustomerHierarchyNode fields a caller can select with {@code fields=}. The manager flag,
+     * level and children are always returned because they carry the structure.
+     */
+    public static final Set<String> HIERARCHY_FIELDS = Set.of(
+        "customerId", "resourceName", "descriptiveName", "accessRole", "currencyCode", "timeZone");
+
+    @Value("${google.ads.access-lookup.max-concurrency:16}")
+    private int accessLookupMaxConcurrency;
+
+    @Value("${google.ads.access-lookup.timeout-seconds:30}")
+    private long accessLookupTimeoutSeconds;
+
+    @Autowired
+    private GoogleAdsClientRegistry clientRegistry;
 
     @Autowired
     private UserAccessService userAccessService;
 
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
+
+    @Autowired
+    private CustomerHierarchyResolver hierarchyResolver;
+
+    @Value("${hierarchy.cache.ttl-seconds:300}")
+    private long hierarchyCacheTtlSeconds;
+
+    @Value("${hierarchy.cache.stale-seconds:1800}")
+    private long hierarchyCacheStaleSeconds;
+
+    @Value("${hierarchy.cache.max-entries:100}")
+    private int hierarchyCacheMaxEntries;
+
+    private SnapshotCache<String, List<CustomerHierarchyNode>> hierarchyCache;
+
+    @PostConstruct
+    void initHierarchyCache() {
+        hierarchyCache = new SnapshotCache<>(
+            "customer hierarchy",
+            Duration.ofSeconds(hierarchyCacheTtlSeconds),
+            Duration.ofSeconds(hierarchyCacheStaleSeconds),
+            hierarchyCacheMaxEntries);
+    }
+
     @Autowired
     private TokenService tokenService;
 
@@ -55,16 +100,41 @@ public class CustomerService {
      * @throws IOException if there's an error communicating with the API
      */
     public List<GoogleAdsCustomer> listAccessibleCustomers() throws IOException {
-        GoogleAdsClient googleAdsClient = createGoogleAdsClient();
+        return listAccessibleCustomers(FieldSelection.all());
+    }
+
+    /**
+     * Lists accessible customers with only the selected fields set. Access roles cost one query
+     * per account, so they are only looked up when selected.
+     *
+     * @param fields The GoogleAdsCustomer fields to return
+     * @return List of Google Ads customers
+     * @throws IOException if there's an error communicating with the API
+     */
+    public List<GoogleAdsCustomer> listAccessibleCustomers(FieldSelection fields) throws IOException {
         String userEmail = getUserEmail();
 
         List<GoogleAdsCustomer> customers = new ArrayList<>();
 
-        try (CustomerServiceClient customerServiceClient =
-            googleAdsClient.getLatestVersion().createCustomerServiceClient()) {
+        try {
+            CustomerServiceClient customerServiceClient = clientRegistry.getCustomerServiceClient(LOGIN_CUSTOMER_ID);
 
             ListAccessibleCustomersResponse response = getAccessibleCustomersResponse(customerServiceClient);
-            customers = processCustomersWithAccessLevels(googleAdsClient, response, userEmail);
+            if (fields.includes("accessRole")) {
+                customers = processCustomersWithAccessLevels(response, userEmail);
+            } else {
+                for (String customerResourceName : response.getResourceNamesList()) {
+                    customers.add(new GoogleAdsCustomer(extractCustomerIdFromResourceName(customerResourceName), customerResourceName, null));
+                }
+            }
+            for (GoogleAdsCustomer customer : customers) {
+                if (!fields.includes("customerId")) {
+                    customer.setCustomerId(null);
+                }
+                if (!fields.includes("resourceName")) {
+                    customer.setResourceName(null);
+                }
+            }
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -74,20 +144,6 @@ public class CustomerService {
         return customers;
     }
 
-    private GoogleAdsClient createGoogleAdsClient() {
-        UserCredentials credentials = UserCredentials.newBuilder()
-            .setClientId(clientId)
-            .setClientSecret(clientSecret)
-            .setRefreshToken(refreshToken)
-            .build();
-
-        return GoogleAdsClient.newBuilder()
-            .setCredentials(credentials)
-            .setDeveloperToken(developerToken)
-            .setLoginCustomerId(5798658445L)
-            .build();
-    }
-
     private String getUserEmail() throws IOException {
         return tokenService.getUserEmailFromToken();
     }
@@ -99,32 +155,35 @@ public class CustomerService {
     }
 
     private List<GoogleAdsCustomer> processCustomersWithAccessLevels(
-            GoogleAdsClient googleAdsClient,
             ListAccessibleCustomersResponse response,
             String userEmail) {
 
-        List<GoogleAdsCustomer> customers = new ArrayList<>();
-
-        for (String customerResourceName : response.getResourceNamesList()) {
-            String customerId = extractCustomerIdFromResourceName(customerResourceName);
-            String accessRole = getAccessRoleForCustomer(googleAdsClient, customerId, userEmail);
-
-            GoogleAdsCustomer customer = new GoogleAdsCustomer(customerId, customerResourceName, accessRole);
-            customers.add(customer);
-        }
-
-        return customers;
+        // Access roles are looked up concurrently; accounts that fail or miss the deadline
+        // get their own error status while the response keeps the API's ordering
+        return BoundedFanOut.map(
+            response.getResourceNamesList(),
+            accessLookupMaxConcurrency,
+            Duration.ofSeconds(accessLookupTimeoutSeconds),
+            customerResourceName -> {
+                String customerId = extractCustomerIdFromResourceName(customerResourceName);
+                String accessRole = getAccessRoleForCustomer(customerId, userEmail);
+                return new GoogleAdsCustomer(customerId, customerResourceName, accessRole);
+            },
+            (customerResourceName, failure) -> new GoogleAdsCustomer(
+                extractCustomerIdFromResourceName(customerResourceName),
+                customerResourceName,
+                failure instanceof TimeoutException ? "Timeout" : "Error"));
     }
 
     private String extractCustomerIdFromResourceName(String customerResourceName) {
         return customerResourceName.substring(customerResourceName.lastIndexOf('/') + 1);
     }
 
-    private String getAccessRoleForCustomer(GoogleAdsClient googleAdsClient, String customerId, String userEmail) {
+    private String getAccessRoleForCustomer(String customerId, String userEmail) {
         try {
             long customerIdLong = Long.parseLong(customerId);
             Optional<CustomerUserAccess> userAccess = userAccessService.getCustomerUserAccess(
-                googleAdsClient, customerIdLong, userEmail);
+                LOGIN_CUSTOMER_ID, customerIdLong, userEmail);
 
             return userAccess
                 .map(access -> userAccessService.getAccessRoleDisplayName(access.getAccessRole()))
@@ -134,36 +193,25 @@ public class CustomerService {
         }
     }
 
-    private List<GoogleAdsCustomer> getClientAccountsForManager(GoogleAdsClient googleAdsClient, String managerCustomerId, String userEmail) {
+    private List<GoogleAdsCustomer> getClientAccountsForManager(String managerCustomerId, String userEmail) {
         List<GoogleAdsCustomer> clientAccounts = new ArrayList<>();
 
-        try (GoogleAdsServiceClient googleAdsServiceClient =
-            googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
-
+        try {
             String query = "SELECT customer_client_link.client_customer, customer_client_link.status " +
                           "FROM customer_client_link " +
                           "WHERE customer_client_link.status = 'ACTIVE'";
 
-            SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
-                .setCustomerId(managerCustomerId)
-                .setQuery(query)
-                .build();
-
-            ServerStream<SearchGoogleAdsStreamResponse> stream = googleAdsServiceClient.searchStreamCallable().call(request);
-
-            for (SearchGoogleAdsStreamResponse response : stream) {
-                for (GoogleAdsRow row : response.getResultsList()) {
-                    String clientResourceName = row.getCustomerClientLink().getClientCustomer();
-                    String clientCustomerId = extractCustomerIdFromResourceName(clientResourceName);
-                    String accessRole = getAccessRoleForCustomer(googleAdsClient, clientCustomerId, userEmail);
-
-                    GoogleAdsCustomer clientCustomer = new GoogleAdsCustomer(
-                        clientCustomerId,
-                        clientResourceName,
-                        accessRole
-                    );
-                    clientAccounts.add(clientCustomer);
-                }
+            for (GoogleAdsRow row : queryExecutor.search(LOGIN_CUSTOMER_ID, managerCustomerId, query)) {
+                String clientResourceName = row.getCustomerClientLink().getClientCustomer();
+                String clientCustomerId = extractCustomerIdFromResourceName(clientResourceName);
+                String accessRole = getAccessRoleForCustomer(clientCustomerId, userEmail);
+
+                GoogleAdsCustomer clientCustomer = new GoogleAdsCustomer(
+                    clientCustomerId,
+                    clientResourceName,
+                    accessRole
+                );
+                clientAccounts.add(clientCustomer);
             }
         } catch (Exception e) {
             // If we can't get client accounts, just log and continue
@@ -173,46 +221,83 @@ public class CustomerService {
         return clientAccounts;
     }
 
+    /**
+     * Gets the account hierarchy for the authenticated user. Snapshots are cached per user and
+     * served stale while a background refresh runs, since hierarchies rarely change within minutes.
+     *
+     * @return List of root CustomerHierarchyNode objects
+     * @throws IOException if there's an error communicating with the API
+     */
     public List<CustomerHierarchyNode> getCustomerHierarchy() throws IOException {
-        GoogleAdsClient googleAdsClient = createGoogleAdsClient();
+        return getCustomerHierarchy(FieldSelection.all());
+    }
+
+    /**
+     * Gets the account hierarchy with only the selected fields set. Unselected detail columns are
+     * left out of the customer_client query and access roles are only looked up when selected.
+     * Each selection is cached separately.
+     *
+     * @param fields The CustomerHierarchyNode fields to return
+     * @return List of root CustomerHierarchyNode objects
+     * @throws IOException if there's an error communicating with the API
+     */
+    public List<CustomerHierarchyNode> getCustomerHierarchy(FieldSelection fields) throws IOException {
         String userEmail = getUserEmail();
+        return hierarchyCache.get(userEmail + "|" + fields.key(), () -> loadCustomerHierarchy(userEmail, fields));
+    }
 
+    /**
+     * Drops the authenticated user's cached hierarchy so the next request rebuilds it.
+     */
+    public void invalidateCustomerHierarchy() throws IOException {
+        String keyPrefix = getUserEmail() + "|";
+        hierarchyCache.invalidateIf(key -> key.startsWith(keyPrefix));
+    }
+
+    private List<CustomerHierarchyNode> loadCustomerHierarchy(String userEmail, FieldSelection fields) throws IOException {
         List<CustomerHierarchyNode> hierarchy = new ArrayList<>();
-        Map<String, CustomerHierarchyNode> customerMap = new HashMap<>();
+        Map<String, CustomerHierarchyNode> customerMap = new LinkedHashMap<>();
         Map<String, String> clientToManagerMap = new HashMap<>();
 
-        try (CustomerServiceClient customerServiceClient =
-            googleAdsClient.getLatestVersion().createCustomerServiceClient()) {
+        try {
+            CustomerServiceClient customerServiceClient = clientRegistry.getCustomerServiceClient(LOGIN_CUSTOMER_ID);
 
             ListAccessibleCustomersResponse response = getAccessibleCustomersResponse(customerServiceClient);
-
-            // First, get details for all directly accessible accounts
+            List<String> customerIds = new ArrayList<>();
             for (String customerResourceName : response.getResourceNamesList()) {
-                String customerId = extractCustomerIdFromResourceName(customerResourceName);
-                CustomerHierarchyNode node = getCustomerDetails(googleAdsClient, customerId, userEmail);
-                if (node != null) {
-                    customerMap.put(customerId, node);
-
-                    // If this is a client account, find its manager
-                    if (!node.isManager()) {
-                        String managerId = findManagerForClient(googleAdsClient, customerId);
-                        if (managerId != null) {
-                            clientToManagerMap.put(customerId, managerId);
-                        }
-                    }
-                }
+                customerIds.add(extractCustomerIdFromResourceName(customerResourceName));
             }
 
-            // Also check if any manager accounts have client relationships with our accessible accounts
-            for (CustomerHierarchyNode managerNode : customerMap.values()) {
-                if (managerNode.isManager()) {
-                    List<String> clientIds = findClientsForManager(googleAdsClient, managerNode.getCustomerId());
-                    for (String clientId : clientIds) {
-                        if (customerMap.containsKey(clientId)) {
-                            clientToManagerMap.put(clientId, managerNode.getCustomerId());
-                            System.out.println("Found client-manager relationship: " + clientId + " -> " + managerNode.getCustomerId());
-                        }
-                    }
+            // Details and manager links come from one customer_client subtree query per uncovered
+            // account, while access roles are looked up concurrently
+            List<CustomerHierarchyResolver.ResolvedAccount> accounts =
+                hierarchyResolver.resolve(LOGIN_CUSTOMER_ID, customerIds, fields);
+            List<String> accessRoles = fields.includes("accessRole")
+                ? BoundedFanOut.map(
+                    customerIds,
+                    accessLookupMaxConcurrency,
+                    Duration.ofSeconds(accessLookupTimeoutSeconds),
+                    customerId -> getAccessRoleForCustomer(customerId, userEmail),
+                    (customerId, failure) -> failure instanceof TimeoutException ? "Timeout" : "Error")
+                : null;
+
+            Set<String> accessibleIds = new HashSet<>(customerIds);
+            for (int i = 0; i < accounts.size(); i++) {
+                CustomerHierarchyResolver.ResolvedAccount account = accounts.get(i);
+                CustomerHierarchyNode node = new CustomerHierarchyNode(
+                    fields.includes("customerId") ? account.customerId() : null,
+                    fields.includes("resourceName") ? "customers/" + account.customerId() : null,
+                    account.descriptiveName(),
+                    accessRoles != null ? accessRoles.get(i) : null,
+                    account.currencyCode(),
+                    account.timeZone(),
+                    account.manager(),
+                    0
+                );
+                customerMap.put(account.customerId(), node);
+
+                if (account.parentId() != null && accessibleIds.contains(account.parentId())) {
+                    clientToManagerMap.put(account.customerId(), account.parentId());
                 }
             }
 
@@ -226,147 +311,39 @@ public class CustomerService {
         return hierarchy;
     }
 
-    private CustomerHierarchyNode getCustomerDetails(GoogleAdsClient googleAdsClient, String customerId, String userEmail) {
-        try (GoogleAdsServiceClient googleAdsServiceClient =
-            googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
-
-            String query = "SELECT customer.id, customer.descriptive_name, customer.currency_code, " +
-                          "customer.time_zone, customer.manager FROM customer WHERE customer.id = " + customerId;
-
-            SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
-                .setCustomerId(customerId)
-                .setQuery(query)
-                .build();
-
-            ServerStream<SearchGoogleAdsStreamResponse> stream = googleAdsServiceClient.searchStreamCallable().call(request);
-
-            for (SearchGoogleAdsStreamResponse response : stream) {
-                for (GoogleAdsRow row : response.getResultsList()) {
-                    Customer customer = row.getCustomer();
-                    String accessRole = getAccessRoleForCustomer(googleAdsClient, customerId, userEmail);
-
-                    return new CustomerHierarchyNode(
-                        customerId,
-                        "customers/" + customerId,
-                        customer.getDescriptiveName(),
-                        accessRole,
-                        customer.getCurrencyCode(),
-                        customer.getTimeZone(),
-                        customer.getManager(),
-                        0
-                    );
-                }
-            }
-        } catch (Exception e) {
-            String accessRole = getAccessRoleForCustomer(googleAdsClient, customerId, userEmail);
-            return new CustomerHierarchyNode(
-                customerId,
-                "customers/" + customerId,
-                "Unknown",
-                accessRole,
-                "USD",
-                "UTC",
-                false,
-                0
-            );
-        }
-
-        return null;
-    }
-
-    private String findManagerForClient(GoogleAdsClient googleAdsClient, String clientCustomerId) {
-        try (GoogleAdsServiceClient googleAdsServiceClient =
-            googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
-
-            String query = "SELECT customer_manager_link.manager_customer, customer_manager_link.status " +
-                          "FROM customer_manager_link " +
-                          "WHERE customer_manager_link.status = 'ACTIVE'";
-
-            SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
-                .setCustomerId(clientCustomerId)
-                .setQuery(query)
-                .build();
-
-            ServerStream<SearchGoogleAdsStreamResponse> stream = googleAdsServiceClient.searchStreamCallable().call(request);
-
-            for (SearchGoogleAdsStreamResponse response : stream) {
-                for (GoogleAdsRow row : response.getResultsList()) {
-                    String managerResourceName = row.getCustomerManagerLink().getManagerCustomer();
-                    return extractCustomerIdFromResourceName(managerResourceName);
-                }
-            }
-        } catch (Exception e) {
-            // If we can't find the manager, just continue
-        }
-
-        return null;
-    }
-
-    private List<String> findClientsForManager(GoogleAdsClient googleAdsClient, String managerCustomerId) {
-        List<String> clientIds = new ArrayList<>();
-
-        try (GoogleAdsServiceClient googleAdsServiceClient =
-            googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
-
-            String query = "SELECT customer_client_link.client_customer, customer_client_link.status " +
-                          "FROM customer_client_link " +
-                          "WHERE customer_client_link.status = ACTIVE";
-
-            SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
-                .setCustomerId(managerCustomerId)
-                .setQuery(query)
-                .build();
-
-            ServerStream<SearchGoogleAdsStreamResponse> stream = googleAdsServiceClient.searchStreamCallable().call(request);
-
-            for (SearchGoogleAdsStreamResponse response : stream) {
-                for (GoogleAdsRow row : response.getResultsList()) {
-                    String clientResourceName = row.getCustomerClientLink().getClientCustomer();
-                    String clientId = extractCustomerIdFromResourceName(clientResourceName);
-                    clientIds.add(clientId);
-                }
-            }
-        } catch (Exception e) {
-            // If we can't find clients, just continue
-        }
-
-        return clientIds;
-    }
-
+    /**
+     * Nests accessible accounts under their accessible managers at any depth. Accounts whose
+     * manager is not accessible become roots; manager roots are listed before client roots.
+     */
     private List<CustomerHierarchyNode> buildHierarchyStructure(Map<String, CustomerHierarchyNode> customerMap, Map<String, String> clientToManagerMap) {
-        List<CustomerHierarchyNode> rootNodes = new ArrayList<>();
+        HierarchyForestBuilder<CustomerHierarchyNode> builder = new HierarchyForestBuilder<>(customerMap.size());
 
-        // First, add all manager accounts as root nodes
-        for (CustomerHierarchyNode node : customerMap.values()) {
-            if (node.isManager()) {
-                rootNodes.add(node);
-            }
+        // Keyed by ID rather than read from the node, since the customerId field may not be selected
+        for (Map.Entry<String, CustomerHierarchyNode> entry : customerMap.entrySet()) {
+            String managerId = clientToManagerMap.get(entry.getKey());
+            long parentId = managerId != null ? Long.parseLong(managerId) : HierarchyForestBuilder.NO_PARENT;
+            builder.add(Long.parseLong(entry.getKey()), parentId, entry.getValue());
         }
 
-        // Then, for each client account, try to add it under its manager
-        for (Map.Entry<String, String> entry : clientToManagerMap.entrySet()) {
-            String clientId = entry.getKey();
-            String managerId = entry.getValue();
-
-            CustomerHierarchyNode clientNode = customerMap.get(clientId);
-            CustomerHierarchyNode managerNode = customerMap.get(managerId);
+        HierarchyForestBuilder.Forest<CustomerHierarchyNode> forest = builder.build(
+            new HierarchyForestBuilder.NodeAssembler<>() {
+                @Override
+                public void addChild(CustomerHierarchyNode parent, CustomerHierarchyNode child) {
+                    parent.addChild(child);
+                }
 
-            if (clientNode != null && managerNode != null) {
-                clientNode.setLevel(1); // Set client as level 1 under manager
-                managerNode.addChild(clientNode);
-            } else if (clientNode != null) {
-                // If manager is not in our accessible accounts, add client as root
-                rootNodes.add(clientNode);
-            }
-        }
+                @Override
+                public void setDepth(CustomerHierarchyNode node, int depth) {
+                    node.setLevel(depth);
+                }
+            });
 
-        // Add any remaining client accounts that don't have a manager relationship
-        for (CustomerHierarchyNode node : customerMap.values()) {
-            if (!node.isManager() && !clientToManagerMap.containsKey(node.getCustomerId())) {
-                rootNodes.add(node);
-            }
+        if (!forest.cycleBreaks().isEmpty()) {
+            logger.warn("Broke manager link cycles at accounts {}", forest.cycleBreaks());
         }
 
+        List<CustomerHierarchyNode> rootNodes = new ArrayList<>(forest.roots());
+        rootNodes.sort(Comparator.comparing(node -> !node.isManager()));
         return rootNodes;
     }
 }
@@ -0,0 +1,459 @@
+package org.adthena.adwordsmcc.service;
+
+import jakarta.annotation.PreDestroy;
+import org.adthena.adwordsmcc.model.AdInfo;
+import org.adthena.adwordsmcc.model.AdUrlReference;
+import org.adthena.adwordsmcc.model.FinalUrlMatches;
+import org.adthena.adwordsmcc.service.CustomerHierarchyResolver.ClientAccount;
+import org.adthena.adwordsmcc.util.BoundedFanOut;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory reverse index from final URL to the ads, across every client account under a manager,
+ * that point at it. A background crawl streams each account's enabled ads and builds an immutable
+ * snapshot that replaces the previous one in a single swap, so lookups never wait on a crawl.
+ * Each distinct URL is stored once, in sorted order, with its (customer, ad) references packed into
+ * primitive arrays; hosts are stored with their labels reversed so a domain lookup, like a URL
+ * prefix lookup, is a binary search over a sorted array.
+ */
+@Service
+public class FinalUrlIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(FinalUrlIndex.class);
+
+    @Value("${google.ads.manager-id:}")
+    private String defaultManagerId;
+
+    @Value("${final-url-index.max-concurrency:8}")
+    private int maxConcurrency;
+
+    @Value("${final-url-index.timeout-minutes:30}")
+    private long timeoutMinutes;
+
+    @Autowired
+    private CustomerHierarchyResolver hierarchyResolver;
+
+    @Autowired
+    private AdService adService;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private final AtomicBoolean building = new AtomicBoolean();
+    private final ExecutorService rebuildExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @PreDestroy
+    void shutdown() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * Rebuilds the index for the configured manager on a fixed delay. The crawl runs on the rebuild
+     * executor so it never holds Spring's single scheduler thread and blocks other scheduled tasks.
+     */
+    @Scheduled(
+        initialDelayString = "${final-url-index.initial-delay-minutes:1}",
+        fixedDelayString = "${final-url-index.refresh-minutes:360}",
+        timeUnit = TimeUnit.MINUTES)
+    void scheduledRebuild() {
+        if (defaultManagerId == null || defaultManagerId.isBlank()) {
+            return;
+        }
+        if (building.get()) {
+            logger.info("Final URL index rebuild already running; skipping scheduled rebuild");
+            return;
+        }
+        String managerId = defaultManagerId;
+        rebuildExecutor.execute(() -> rebuild(managerId));
+    }
+
+    /**
+     * Starts a rebuild in the background.
+     *
+     * @param managerId The manager to crawl, or null for the configured manager
+     * @return false if a rebuild is already running
+     */
+    public boolean requestRebuild(String managerId) {
+        String target = managerId != null && !managerId.isBlank() ? managerId : defaultManagerId;
+        if (target == null || target.isBlank()) {
+            throw new IllegalArgumentException("No manager ID given and google.ads.manager-id is not set");
+        }
+        if (building.get()) {
+            return false;
+        }
+        rebuildExecutor.execute(() -> rebuild(target));
+        return true;
+    }
+
+    /**
+     * Crawls every enabled client account under the manager and swaps in the new index.
+     * Accounts that fail or time out are left out and counted. Does nothing if a rebuild is running.
+     */
+    public void rebuild(String managerId) {
+        if (!building.compareAndSet(false, true)) {
+            logger.info("Final URL index rebuild already running; skipping request for {}", managerId);
+            return;
+        }
+
+        try {
+            long startTime = System.currentTimeMillis();
+            Long loginCustomerId = Long.parseLong(managerId);
+            List<ClientAccount> accounts = hierarchyResolver.listClientAccounts(loginCustomerId, managerId);
+            logger.info("Building final URL index for manager {} across {} accounts", managerId, accounts.size());
+
+            SnapshotBuilder builder = new SnapshotBuilder();
+            List<Boolean> outcomes = BoundedFanOut.map(
+                accounts,
+                maxConcurrency,
+                Duration.ofMinutes(timeoutMinutes),
+                account -> {
+                    List<AdInfo> ads = new ArrayList<>();
+                    try {
+                        adService.streamEnabledAdsWithFinalUrls(account.customerId(), loginCustomerId, ads::add);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    builder.addAccount(Long.parseLong(account.customerId()), ads);
+                    return true;
+                },
+                (account, failure) -> {
+                    logger.warn("Could not index ads for account {}: {}", account.customerId(), failure.getMessage());
+                    return false;
+                });
+
+            int failedAccounts = 0;
+            for (Boolean outcome : outcomes) {
+                if (!outcome) {
+                    failedAccounts++;
+                }
+            }
+
+            Snapshot built = builder.build(managerId, accounts.size(), failedAccounts, startTime);
+            snapshot = built;
+            logger.info("Final URL index built in {}ms: {} URLs, {} references, {} hosts, {} failed accounts",
+                built.buildMs, built.urls.length, built.adIds.length, built.hosts.length, failedAccounts);
+        } catch (Exception e) {
+            logger.error("Final URL index rebuild for manager {} failed", managerId, e);
+        } finally {
+            building.set(false);
+        }
+    }
+
+    /**
+     * Finds the ads whose final URL is exactly the given URL.
+     */
+    public FinalUrlMatches findByUrl(String url, int limit) {
+        long startNanos = System.nanoTime();
+        Snapshot current = snapshot;
+        List<AdUrlReference> references = new ArrayList<>();
+
+        int rank = lowerBound(current.urls, url);
+        int total = 0;
+        if (rank < current.urls.length && current.urls[rank].equals(url)) {
+            total = current.postingStart[rank + 1] - current.postingStart[rank];
+            collect(current, rank, references, limit);
+        }
+
+        return new FinalUrlMatches(total, total > references.size(), micros(startNanos), references);
+    }
+
+    /**
+     * Finds the ads whose final URL starts with the given prefix.
+     */
+    public FinalUrlMatches findByPrefix(String prefix, int limit) {
+        long startNanos = System.nanoTime();
+        Snapshot current = snapshot;
+        List<AdUrlReference> references = new ArrayList<>();
+
+        int from = lowerBound(current.urls, prefix);
+        int to = lowerBound(current.urls, prefix + Character.MAX_VALUE);
+        int total = current.postingStart[to] - current.postingStart[from];
+        for (int rank = from; rank < to && references.size() < limit; rank++) {
+            collect(current, rank, references, limit);
+        }
+
+        return new FinalUrlMatches(total, total > references.size(), micros(startNanos), references);
+    }
+
+    /**
+     * Finds the ads whose final URL is on the given domain or any of its subdomains.
+     * A leading "www." is ignored on both the query and the indexed hosts.
+     */
+    public FinalUrlMatches findByDomain(String domain, int limit) {
+        long startNanos = System.nanoTime();
+        Snapshot current = snapshot;
+        List<AdUrlReference> references = new ArrayList<>();
+
+        String key = domain.contains("://") ? hostKey(domain) : reverseLabels(normalizeHost(domain));
+        int from = lowerBound(current.hosts, key);
+        int to = lowerBound(current.hosts, key + Character.MAX_VALUE);
+        int total = 0;
+        for (int host = from; host < to; host++) {
+            String candidate = current.hosts[host];
+            // The range also holds hosts such as "com.example-shop" that merely share the prefix
+            if (candidate.length() != key.length() && candidate.charAt(key.length()) != '.') {
+                continue;
+            }
+            for (int i = current.hostStart[host]; i < current.hostStart[host + 1]; i++) {
+                int rank = current.hostUrls[i];
+                total += current.postingStart[rank + 1] - current.postingStart[rank];
+                collect(current, rank, references, limit);
+            }
+        }
+
+        return new FinalUrlMatches(total, total > references.size(), micros(startNanos), references);
+    }
+
+    public Map<String, Object> getStatus() {
+        Snapshot current = snapshot;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("managerId", current.managerId);
+        status.put("builtAt", current.builtAtMillis > 0 ? Instant.ofEpochMilli(current.builtAtMillis).toString() : null);
+        status.put("buildMs", current.buildMs);
+        status.put("accounts", current.accounts);
+        status.put("failedAccounts", current.failedAccounts);
+        status.put("distinctUrls", current.urls.length);
+        status.put("references", current.adIds.length);
+        status.put("distinctHosts", current.hosts.length);
+        status.put("building", building.get());
+        return status;
+    }
+
+    private void collect(Snapshot current, int rank, List<AdUrlReference> references, int limit) {
+        for (int p = current.postingStart[rank]; p < current.postingStart[rank + 1] && references.size() < limit; p++) {
+            references.add(new AdUrlReference(current.urls[rank], String.valueOf(current.customerIds[p]), current.adIds[p]));
+        }
+    }
+
+    private static long micros(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000;
+    }
+
+    /**
+     * Returns the first index whose value is not less than the key.
+     */
+    private static int lowerBound(String[] sorted, String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Extracts the host of a URL in reversed-label form, e.g. "https://www.shop.example.com/a" becomes
+     * "com.example.shop".
+     */
+    static String hostKey(String url) {
+        int start = url.indexOf("://");
+        start = start >= 0 ? start + 3 : 0;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+
+        String authority = url.substring(start, end);
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            authority = authority.substring(at + 1);
+        }
+        int colon = authority.indexOf(':');
+        if (colon >= 0) {
+            authority = authority.substring(0, colon);
+        }
+        return reverseLabels(normalizeHost(authority));
+    }
+
+    private static String normalizeHost(String host) {
+        String normalized = host.trim().toLowerCase(Locale.ROOT);
+        if (normalized.endsWith(".")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        if (normalized.startsWith("www.")) {
+            normalized = normalized.substring(4);
+        }
+        return normalized;
+    }
+
+    private static String reverseLabels(String host) {
+        String[] labels = host.split("\\.");
+        StringBuilder reversed = new StringBuilder(host.length());
+        for (int i = labels.length - 1; i >= 0; i--) {
+            reversed.append(labels[i]);
+            if (i > 0) {
+                reversed.append('.');
+            }
+        }
+        return reversed.toString();
+    }
+
+    /**
+     * An immutable index. URLs are sorted and distinct; the references for URL rank r are at
+     * positions postingStart[r] to postingStart[r + 1] of customerIds and adIds. Hosts are sorted
+     * reversed-label keys; the URL ranks on host h are at hostStart[h] to hostStart[h + 1] of hostUrls.
+     */
+    private static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(null, new String[0], new int[1], new long[0], new long[0],
+            new String[0], new int[1], new int[0], 0, 0, 0L, 0L);
+
+        private final String managerId;
+        private final String[] urls;
+        private final int[] postingStart;
+        private final long[] customerIds;
+        private final long[] adIds;
+        private final String[] hosts;
+        private final int[] hostStart;
+        private final int[] hostUrls;
+        private final int accounts;
+        private final int failedAccounts;
+        private final long builtAtMillis;
+        private final long buildMs;
+
+        private Snapshot(String managerId, String[] urls, int[] postingStart, long[] customerIds, long[] adIds,
+                         String[] hosts, int[] hostStart, int[] hostUrls, int accounts, int failedAccounts,
+                         long builtAtMillis, long buildMs) {
+            this.managerId = managerId;
+            this.urls = urls;
+            this.postingStart = postingStart;
+            this.customerIds = customerIds;
+            this.adIds = adIds;
+            this.hosts = hosts;
+            this.hostStart = hostStart;
+            this.hostUrls = hostUrls;
+            this.accounts = accounts;
+            this.failedAccounts = failedAccounts;
+            this.builtAtMillis = builtAtMillis;
+            this.buildMs = buildMs;
+        }
+    }
+
+    /**
+     * Collects references during a crawl, interning each URL once, then lays them out as a Snapshot.
+     * Accounts that finish after the snapshot is built are ignored.
+     */
+    private static final class SnapshotBuilder {
+
+        private final Map<String, Integer> urlIds = new HashMap<>();
+        private final List<String> urls = new ArrayList<>();
+        private int[] postingUrls = new int[1024];
+        private long[] postingCustomers = new long[1024];
+        private long[] postingAds = new long[1024];
+        private int postings;
+        private boolean closed;
+
+        synchronized void addAccount(long customerId, List<AdInfo> ads) {
+            if (closed) {
+                return;
+            }
+            for (AdInfo ad : ads) {
+                for (String url : ad.getFinalUrls()) {
+                    Integer urlId = urlIds.get(url);
+                    if (urlId == null) {
+                        urlId = urls.size();
+                        urls.add(url);
+                        urlIds.put(url, urlId);
+                    }
+
+                    if (postings == postingUrls.length) {
+                        int capacity = postings << 1;
+                        postingUrls = Arrays.copyOf(postingUrls, capacity);
+                        postingCustomers = Arrays.copyOf(postingCustomers, capacity);
+                        postingAds = Arrays.copyOf(postingAds, capacity);
+                    }
+                    postingUrls[postings] = urlId;
+                    postingCustomers[postings] = customerId;
+                    postingAds[postings] = ad.getAdId();
+                    postings++;
+                }
+            }
+        }
+
+        synchronized Snapshot build(String managerId, int accounts, int failedAccounts, long startMillis) {
+            closed = true;
+            int n = urls.size();
+
+            Integer[] byUrl = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                byUrl[i] = i;
+            }
+            Arrays.sort(byUrl, (left, right) -> urls.get(left).compareTo(urls.get(right)));
+
+            String[] sortedUrls = new String[n];
+            int[] rankOf = new int[n];
+            for (int rank = 0; rank < n; rank++) {
+                sortedUrls[rank] = urls.get(byUrl[rank]);
+                rankOf[byUrl[rank]] = rank;
+            }
+
+            // Group references by URL rank with a counting pass
+            int[] postingStart = new int[n + 1];
+            for (int p = 0; p < postings; p++) {
+                postingStart[rankOf[postingUrls[p]] + 1]++;
+            }
+            for (int rank = 0; rank < n; rank++) {
+                postingStart[rank + 1] += postingStart[rank];
+            }
+            int[] fill = Arrays.copyOf(postingStart, n);
+            long[] customerIds = new long[postings];
+            long[] adIds = new long[postings];
+            for (int p = 0; p < postings; p++) {
+                int slot = fill[rankOf[postingUrls[p]]]++;
+                customerIds[slot] = postingCustomers[p];
+                adIds[slot] = postingAds[p];
+            }
+
+            // Group URL ranks by host; the sort is stable, so ranks stay ascending within a host
+            String[] hostKeys = new String[n];
+            Integer[] byHost = new Integer[n];
+            for (int rank = 0; rank < n; rank++) {
+                hostKeys[rank] = hostKey(sortedUrls[rank]);
+                byHost[rank] = rank;
+            }
+            Arrays.sort(byHost, (left, right) -> hostKeys[left].compareTo(hostKeys[right]));
+
+            List<String> hosts = new ArrayList<>();
+            int[] hostStart = new int[n + 1];
+            int[] hostUrls = new int[n];
+            for (int i = 0; i < n; i++) {
+                hostUrls[i] = byHost[i];
+                String host = hostKeys[byHost[i]];
+                if (hosts.isEmpty() || !hosts.get(hosts.size() - 1).equals(host)) {
+                    hostStart[hosts.size()] = i;
+                    hosts.add(host);
+                }
+            }
+            hostStart[hosts.size()] = n;
+
+            long now = System.currentTimeMillis();
+            return new Snapshot(managerId, sortedUrls, postingStart, customerIds, adIds,
+                hosts.toArray(new String[0]), Arrays.copyOf(hostStart, hosts.size() + 1), hostUrls,
+                accounts, failedAccounts, now, now - startMillis);
+        }
+    }
+}
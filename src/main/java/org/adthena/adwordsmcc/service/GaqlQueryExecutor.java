@@ -0,0 +1,499 @@
+package org.adthena.adwordsmcc.service;
+
+import com.google.ads.googleads.v18.services.GoogleAdsRow;
+import com.google.ads.googleads.v18.services.GoogleAdsServiceClient;
+import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamRequest;
+import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamResponse;
+import com.google.api.gax.rpc.ServerStream;
+import jakarta.annotation.PostConstruct;
+import org.adthena.adwordsmcc.util.GaqlTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every GAQL search for the services and caches the materialized rows, keyed by login
+ * customer, customer and normalized query. How long rows are kept depends on the resource the
+ * query reads, so slow-changing resources such as geo targets are reused for long while link
+ * states are always read live; a TTL of zero turns caching off for a resource. The cache is
+ * bounded by entry count and by total rows, evicting the least recently used entries first.
+ * Concurrent identical searches share one API call. Live searches, for callers that keep their
+ * own copy of the rows or act on them, go through the same layer and are counted but never touch
+ * the cache.
+ */
+@Service
+public class GaqlQueryExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(GaqlQueryExecutor.class);
+
+    @Value("${gaql-cache.default-ttl-seconds:60}")
+    private long defaultTtlSeconds;
+
+    @Value("${gaql-cache.resource-ttl-seconds:}")
+    private String resourceTtlSeconds;
+
+    @Value("${gaql-cache.max-entries:2000}")
+    private int maxEntries;
+
+    @Value("${gaql-cache.max-rows:250000}")
+    private long maxRows;
+
+    @Value("${gaql-cache.max-rows-per-entry:50000}")
+    private int maxRowsPerEntry;
+
+    @Autowired
+    private GoogleAdsClientRegistry clientRegistry;
+
+    private final Map<String, Long> resourceTtlMillis = new HashMap<>();
+
+    // Access-ordered for LRU eviction; guarded by itself, as is totalRows
+    private final LinkedHashMap<QueryKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalRows;
+
+    private final ConcurrentMap<QueryKey, CompletableFuture<List<GoogleAdsRow>>> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ResourceStats> stats = new ConcurrentHashMap<>();
+    // Keyed by template name and fingerprint, so an edited template starts fresh counters
+    private final ConcurrentMap<String, TemplateStats> templateStats = new ConcurrentHashMap<>();
+    // Bumped on every invalidation, so a fetch that started before one cannot store its rows after it
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Receives rows one at a time as they come off the result stream.
+     */
+    @FunctionalInterface
+    public interface RowSink {
+        void accept(GoogleAdsRow row) throws IOException;
+    }
+
+    private record QueryKey(Long loginCustomerId, String customerId, String query) {
+    }
+
+    private record Entry(List<GoogleAdsRow> rows, String resource, long expiresAtMillis) {
+    }
+
+    private static final class ResourceStats {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong uncached = new AtomicLong();
+    }
+
+    private static final class TemplateStats {
+        private final AtomicLong executions = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+    }
+
+    @PostConstruct
+    void parseResourceTtls() {
+        if (resourceTtlSeconds == null || resourceTtlSeconds.isBlank()) {
+            return;
+        }
+        for (String pair : resourceTtlSeconds.split(",")) {
+            String[] parts = pair.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("gaql-cache.resource-ttl-seconds entry '" + pair.trim() + "' is not resource:seconds");
+            }
+            resourceTtlMillis.put(parts[0].trim(), Long.parseLong(parts[1].trim()) * 1000L);
+        }
+    }
+
+    /**
+     * Runs a search, or returns the rows of an identical search that is still within its TTL.
+     *
+     * @param loginCustomerId The manager to query through, or null to omit the login-customer-id header
+     * @param customerId      The customer to query
+     * @param query           The GAQL query
+     * @return The result rows; the list must not be modified
+     */
+    public List<GoogleAdsRow> search(Long loginCustomerId, String customerId, String query) {
+        return search(loginCustomerId, customerId, query, true);
+    }
+
+    /**
+     * Runs a search from a bound template, counting it against the template's fingerprint.
+     */
+    public List<GoogleAdsRow> search(Long loginCustomerId, String customerId, GaqlTemplate.Binding query) {
+        TemplateStats counters = templateStatsFor(query.template());
+        counters.executions.incrementAndGet();
+        try {
+            List<GoogleAdsRow> rows = search(loginCustomerId, customerId, query.toQuery(), true);
+            counters.rows.addAndGet(rows.size());
+            return rows;
+        } catch (RuntimeException e) {
+            counters.failures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a search against the API without reading or filling the cache, for callers that keep
+     * their own copy of the results or act on them, such as syncs and link lookups.
+     */
+    public List<GoogleAdsRow> searchLive(Long loginCustomerId, String customerId, String query) {
+        return search(loginCustomerId, customerId, query, false);
+    }
+
+    /**
+     * Runs a live search from a bound template.
+     */
+    public List<GoogleAdsRow> searchLive(Long loginCustomerId, String customerId, GaqlTemplate.Binding query) {
+        TemplateStats counters = templateStatsFor(query.template());
+        counters.executions.incrementAndGet();
+        try {
+            List<GoogleAdsRow> rows = search(loginCustomerId, customerId, query.toQuery(), false);
+            counters.rows.addAndGet(rows.size());
+            return rows;
+        } catch (RuntimeException e) {
+            counters.failures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private List<GoogleAdsRow> search(Long loginCustomerId, String customerId, String query, boolean useCache) {
+        String normalized = normalize(query);
+        String resource = resourceOf(normalized);
+        long ttlMillis = useCache ? ttlMillis(resource) : 0L;
+        ResourceStats resourceStats = statsFor(resource);
+
+        if (ttlMillis <= 0) {
+            resourceStats.uncached.incrementAndGet();
+            return Collections.unmodifiableList(fetch(loginCustomerId, customerId, normalized));
+        }
+
+        QueryKey key = new QueryKey(loginCustomerId, customerId, normalized);
+        List<GoogleAdsRow> cached = lookup(key);
+        if (cached != null) {
+            resourceStats.hits.incrementAndGet();
+            return cached;
+        }
+        resourceStats.misses.incrementAndGet();
+
+        CompletableFuture<List<GoogleAdsRow>> created = new CompletableFuture<>();
+        CompletableFuture<List<GoogleAdsRow>> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return await(existing);
+        }
+        long generation = generationOf(resource).get();
+        try {
+            List<GoogleAdsRow> rows = Collections.unmodifiableList(fetch(loginCustomerId, customerId, normalized));
+            store(key, resource, rows, ttlMillis, generation);
+            created.complete(rows);
+            return rows;
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * Passes each result row to the sink as it arrives instead of returning a list. Rows are served
+     * from the cache when an identical search is within its TTL, and a completed stream is cached
+     * if it is small enough, so this is meant for small, bounded queries; large reads such as full
+     * ad lists belong on {@link #streamLive}. If the sink fails the API stream is cancelled.
+     *
+     * @return The number of rows passed to the sink
+     * @throws IOException if the sink fails
+     */
+    public long stream(Long loginCustomerId, String customerId, String query, RowSink sink) throws IOException {
+        return stream(loginCustomerId, customerId, query, true, sink);
+    }
+
+    /**
+     * Streams rows from the API as above without reading or filling the cache.
+     */
+    public long streamLive(Long loginCustomerId, String customerId, String query, RowSink sink) throws IOException {
+        return stream(loginCustomerId, customerId, query, false, sink);
+    }
+
+    /**
+     * Streams rows live from a bound template, counting it against the template's fingerprint.
+     */
+    public long streamLive(Long loginCustomerId, String customerId, GaqlTemplate.Binding query, RowSink sink) throws IOException {
+        TemplateStats counters = templateStatsFor(query.template());
+        counters.executions.incrementAndGet();
+        try {
+            long count = stream(loginCustomerId, customerId, query.toQuery(), false, sink);
+            counters.rows.addAndGet(count);
+            return count;
+        } catch (IOException | RuntimeException e) {
+            counters.failures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private long stream(Long loginCustomerId, String customerId, String query, boolean useCache, RowSink sink) throws IOException {
+        String normalized = normalize(query);
+        String resource = resourceOf(normalized);
+        long ttlMillis = useCache ? ttlMillis(resource) : 0L;
+        ResourceStats resourceStats = statsFor(resource);
+        QueryKey key = new QueryKey(loginCustomerId, customerId, normalized);
+
+        if (ttlMillis > 0) {
+            List<GoogleAdsRow> cached = lookup(key);
+            if (cached != null) {
+                resourceStats.hits.incrementAndGet();
+                for (GoogleAdsRow row : cached) {
+                    sink.accept(row);
+                }
+                return cached.size();
+            }
+            resourceStats.misses.incrementAndGet();
+        } else {
+            resourceStats.uncached.incrementAndGet();
+        }
+
+        long generation = generationOf(resource).get();
+        ServerStream<SearchGoogleAdsStreamResponse> stream = call(loginCustomerId, customerId, normalized);
+        List<GoogleAdsRow> rows = ttlMillis > 0 ? new ArrayList<>() : null;
+        long count = 0;
+        try {
+            for (SearchGoogleAdsStreamResponse response : stream) {
+                for (GoogleAdsRow row : response.getResultsList()) {
+                    sink.accept(row);
+                    count++;
+                    if (rows != null) {
+                        rows.add(row);
+                        if (rows.size() > maxRowsPerEntry) {
+                            rows = null;
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            stream.cancel();
+            throw e;
+        }
+
+        if (rows != null) {
+            store(key, resource, Collections.unmodifiableList(rows), ttlMillis, generation);
+        }
+        return count;
+    }
+
+    /**
+     * Drops every cached result for a resource, for callers that have just changed it. Searches
+     * already running against the API are not cached when they finish, and later identical
+     * searches do not wait on them.
+     */
+    public void invalidateResource(String resource) {
+        synchronized (entries) {
+            generationOf(resource).incrementAndGet();
+            inFlight.keySet().removeIf(key -> resourceOf(key.query()).equals(resource));
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.resource().equals(resource)) {
+                    totalRows -= entry.rows().size();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generations.values().forEach(AtomicLong::incrementAndGet);
+            inFlight.clear();
+            entries.clear();
+            totalRows = 0;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        synchronized (entries) {
+            status.put("entries", entries.size());
+            status.put("rows", totalRows);
+        }
+        status.put("maxEntries", maxEntries);
+        status.put("maxRows", maxRows);
+        status.put("evictions", evictions.get());
+        status.put("expirations", expirations.get());
+
+        Map<String, Object> resources = new TreeMap<>();
+        stats.forEach((resource, resourceStats) -> {
+            Map<String, Object> counters = new LinkedHashMap<>();
+            counters.put("ttlSeconds", ttlMillis(resource) / 1000);
+            counters.put("hits", resourceStats.hits.get());
+            counters.put("misses", resourceStats.misses.get());
+            counters.put("uncached", resourceStats.uncached.get());
+            resources.put(resource, counters);
+        });
+        status.put("resources", resources);
+
+        Map<String, Object> templates = new TreeMap<>();
+        templateStats.forEach((template, counters) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("executions", counters.executions.get());
+            values.put("rows", counters.rows.get());
+            values.put("failures", counters.failures.get());
+            templates.put(template, values);
+        });
+        status.put("templates", templates);
+        return status;
+    }
+
+    private List<GoogleAdsRow> lookup(QueryKey key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtMillis() <= System.currentTimeMillis()) {
+                entries.remove(key);
+                totalRows -= entry.rows().size();
+                expirations.incrementAndGet();
+                return null;
+            }
+            return entry.rows();
+        }
+    }
+
+    private void store(QueryKey key, String resource, List<GoogleAdsRow> rows, long ttlMillis, long generation) {
+        if (rows.size() > maxRowsPerEntry) {
+            return;
+        }
+        synchronized (entries) {
+            if (generationOf(resource).get() != generation) {
+                return;
+            }
+            Entry previous = entries.put(key, new Entry(rows, resource, System.currentTimeMillis() + ttlMillis));
+            if (previous != null) {
+                totalRows -= previous.rows().size();
+            }
+            totalRows += rows.size();
+
+            Iterator<Map.Entry<QueryKey, Entry>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || totalRows > maxRows) && eldest.hasNext()) {
+                Map.Entry<QueryKey, Entry> evicted = eldest.next();
+                totalRows -= evicted.getValue().rows().size();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private List<GoogleAdsRow> fetch(Long loginCustomerId, String customerId, String query) {
+        List<GoogleAdsRow> rows = new ArrayList<>();
+        for (SearchGoogleAdsStreamResponse response : call(loginCustomerId, customerId, query)) {
+            rows.addAll(response.getResultsList());
+        }
+        return rows;
+    }
+
+    private ServerStream<SearchGoogleAdsStreamResponse> call(Long loginCustomerId, String customerId, String query) {
+        GoogleAdsServiceClient googleAdsServiceClient = clientRegistry.getGoogleAdsServiceClient(loginCustomerId);
+        SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
+            .setCustomerId(customerId)
+            .setQuery(query)
+            .build();
+        return googleAdsServiceClient.searchStreamCallable().call(request);
+    }
+
+    private List<GoogleAdsRow> await(CompletableFuture<List<GoogleAdsRow>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shared GAQL search", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private long ttlMillis(String resource) {
+        return resourceTtlMillis.getOrDefault(resource, defaultTtlSeconds * 1000L);
+    }
+
+    private ResourceStats statsFor(String resource) {
+        return stats.computeIfAbsent(resource, r -> new ResourceStats());
+    }
+
+    private TemplateStats templateStatsFor(GaqlTemplate template) {
+        return templateStats.computeIfAbsent(template.name() + "@" + template.fingerprint(), t -> new TemplateStats());
+    }
+
+    private AtomicLong generationOf(String resource) {
+        return generations.computeIfAbsent(resource, r -> new AtomicLong());
+    }
+
+    /**
+     * Collapses whitespace outside quoted literals to single spaces and drops it before commas
+     * and closing parentheses and after commas and opening parentheses, so queries that differ
+     * only in layout share a cache entry.
+     */
+    static String normalize(String query) {
+        StringBuilder normalized = new StringBuilder(query.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                normalized.append(c);
+                if (c == '\\' && i + 1 < query.length()) {
+                    normalized.append(query.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+
+            if (pendingSpace && c != ',' && c != ')' && normalized.length() > 0) {
+                char last = normalized.charAt(normalized.length() - 1);
+                if (last != ',' && last != '(') {
+                    normalized.append(' ');
+                }
+            }
+            pendingSpace = false;
+            normalized.append(c);
+            if (c == '\'' || c == '"') {
+                quote = c;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * The resource named in the FROM clause of a normalized query.
+     */
+    private static String resourceOf(String normalized) {
+        String upper = normalized.toUpperCase();
+        int from = upper.indexOf(" FROM ");
+        if (from < 0) {
+            logger.debug("No FROM clause in GAQL query: {}", normalized);
+            return "unknown";
+        }
+        int start = from + 6;
+        int end = normalized.indexOf(' ', start);
+        return normalized.substring(start, end < 0 ? normalized.length() : end);
+    }
+}
@@ -0,0 +1,243 @@
+package org.adthena.adwordsmcc.service;
+
+import com.google.ads.googleads.v18.resources.GeoTargetConstant;
+import com.google.ads.googleads.v18.services.GoogleAdsRow;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.adthena.adwordsmcc.util.LongIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Country-level geo target constants, used to give country criterion IDs a name and country code.
+ * The whole table is loaded with one query, held as an immutable snapshot indexed by a primitive
+ * map, and written to disk so a restart does not need to query it again. A snapshot older than the
+ * refresh interval is served while a single background reload replaces it. After a failed load the
+ * current snapshot, possibly empty, is served for a backoff period before the API is tried again.
+ */
+@Component
+public class GeoTargetCatalog {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeoTargetCatalog.class);
+
+    private static final String COUNTRY_QUERY =
+            "SELECT geo_target_constant.id, geo_target_constant.name, geo_target_constant.country_code " +
+            "FROM geo_target_constant " +
+            "WHERE geo_target_constant.target_type = 'Country'";
+
+    /**
+     * An immutable set of countries. Lookups of unknown IDs return null.
+     */
+    public static final class Countries {
+
+        private static final Countries EMPTY = new Countries(new long[0], new String[0], new String[0], 0L);
+
+        private final LongIntHashMap index;
+        private final long[] ids;
+        private final String[] countryCodes;
+        private final String[] names;
+        private final long loadedAtMillis;
+
+        private Countries(long[] ids, String[] countryCodes, String[] names, long loadedAtMillis) {
+            this.ids = ids;
+            this.countryCodes = countryCodes;
+            this.names = names;
+            this.loadedAtMillis = loadedAtMillis;
+            this.index = new LongIntHashMap(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                index.put(ids[i], i);
+            }
+        }
+
+        public String countryCode(long id) {
+            int i = index.get(id, -1);
+            return i >= 0 ? countryCodes[i] : null;
+        }
+
+        public String name(long id) {
+            int i = index.get(id, -1);
+            return i >= 0 ? names[i] : null;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+    }
+
+    @Value("${geo-targets.cache-file:${java.io.tmpdir}/adwords-mcc/geo-target-countries.tsv}")
+    private String cacheFile;
+
+    @Value("${geo-targets.refresh-days:30}")
+    private long refreshDays;
+
+    @Value("${geo-targets.retry-backoff-seconds:60}")
+    private long retryBackoffSeconds;
+
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
+
+    private volatile Countries countries = Countries.EMPTY;
+    private volatile long lastFailureMillis;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ExecutorService refreshExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @PostConstruct
+    void loadFromDisk() {
+        Path file = Paths.get(cacheFile);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            countries = read(file);
+            logger.info("Loaded {} geo target countries from {}", countries.size(), file);
+        } catch (Exception e) {
+            logger.warn("Ignoring unreadable geo target cache {}: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the current countries. The first call with nothing cached loads them on the caller's
+     * thread; an expired snapshot is returned as-is while it reloads in the background. Within the
+     * backoff period after a failed load no load is attempted, so callers get the empty catalog
+     * and fall back to bare criterion IDs.
+     *
+     * @param customerId Any accessible customer, used to run the geo_target_constant query
+     */
+    public Countries getCountries(String customerId) {
+        Countries current = countries;
+        if (current.size() == 0) {
+            if (inBackoff()) {
+                return current;
+            }
+            synchronized (this) {
+                if (countries.size() == 0 && !inBackoff()) {
+                    reload(customerId);
+                }
+                return countries;
+            }
+        }
+
+        long ageMillis = System.currentTimeMillis() - current.loadedAtMillis;
+        if (ageMillis > refreshDays * 86_400_000L && !inBackoff() && refreshing.compareAndSet(false, true)) {
+            refreshExecutor.execute(() -> {
+                try {
+                    synchronized (this) {
+                        reload(customerId);
+                    }
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+        return current;
+    }
+
+    private boolean inBackoff() {
+        long failedAt = lastFailureMillis;
+        return failedAt > 0 && System.currentTimeMillis() - failedAt < retryBackoffSeconds * 1000L;
+    }
+
+    private void reload(String customerId) {
+        Countries loaded;
+        try {
+            loaded = query(customerId);
+        } catch (Exception e) {
+            lastFailureMillis = System.currentTimeMillis();
+            logger.warn("Could not load geo target countries; retrying in {}s: {}", retryBackoffSeconds, e.getMessage());
+            return;
+        }
+        if (loaded.size() == 0) {
+            lastFailureMillis = System.currentTimeMillis();
+            logger.warn("The API returned no geo target countries; retrying in {}s", retryBackoffSeconds);
+            return;
+        }
+
+        countries = loaded;
+        lastFailureMillis = 0L;
+        logger.info("Loaded {} geo target countries from the API", loaded.size());
+        try {
+            write(loaded, Paths.get(cacheFile));
+        } catch (IOException e) {
+            logger.warn("Could not write geo target cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    private Countries query(String customerId) {
+        List<GeoTargetConstant> rows = new ArrayList<>();
+        for (GoogleAdsRow row : queryExecutor.search(null, customerId, COUNTRY_QUERY)) {
+            rows.add(row.getGeoTargetConstant());
+        }
+
+        long[] ids = new long[rows.size()];
+        String[] countryCodes = new String[rows.size()];
+        String[] names = new String[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            ids[i] = rows.get(i).getId();
+            countryCodes[i] = rows.get(i).getCountryCode();
+            names[i] = rows.get(i).getName();
+        }
+        return new Countries(ids, countryCodes, names, System.currentTimeMillis());
+    }
+
+    /**
+     * Reads the cache file: a load timestamp line, then one tab-separated id, country code and name per line.
+     */
+    private Countries read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            long loadedAt = Long.parseLong(reader.readLine().trim());
+            List<String[]> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line.split("\t", 3));
+                }
+            }
+
+            long[] ids = new long[lines.size()];
+            String[] countryCodes = new String[lines.size()];
+            String[] names = new String[lines.size()];
+            for (int i = 0; i < lines.size(); i++) {
+                ids[i] = Long.parseLong(lines.get(i)[0]);
+                countryCodes[i] = lines.get(i)[1];
+                names[i] = lines.get(i)[2];
+            }
+            return new Countries(ids, countryCodes, names, loadedAt);
+        }
+    }
+
+    private void write(Countries snapshot, Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(Long.toString(snapshot.loadedAtMillis));
+            writer.newLine();
+            for (int i = 0; i < snapshot.ids.length; i++) {
+                writer.write(snapshot.ids[i] + "\t" + snapshot.countryCodes[i] + "\t" + snapshot.names[i]);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,187 @@
+package org.adthena.adwordsmcc.service;
+
+import com.google.ads.googleads.lib.GoogleAdsClient;
+import com.google.ads.googleads.v18.services.CustomerClientLinkServiceClient;
+import com.google.ads.googleads.v18.services.CustomerManagerLinkServiceClient;
+import com.google.ads.googleads.v18.services.CustomerServiceClient;
+import com.google.ads.googleads.v18.services.GoogleAdsServiceClient;
+import com.google.api.gax.core.BackgroundResource;
+import com.google.auth.oauth2.UserCredentials;
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shared registry of long-lived Google Ads clients and service stubs.
+ * Clients and stubs are created once per (credentials, login customer ID) and reused
+ * across requests and threads, so each query no longer pays for a new gRPC channel,
+ * TLS handshake and OAuth refresh. All stubs are shut down when the application context closes.
+ */
+@Component
+public class GoogleAdsClientRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(GoogleAdsClientRegistry.class);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    @Value("${google.ads.developer-token}")
+    private String developerToken;
+
+    @Value("${google.ads.client-id}")
+    private String clientId;
+
+    @Value("${google.ads.client-secret}")
+    private String clientSecret;
+
+    @Value("${google.ads.refresh-token}")
+    private String refreshToken;
+
+    private final ConcurrentMap<ClientKey, GoogleAdsClient> clients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<StubKey, BackgroundResource> stubs = new ConcurrentHashMap<>();
+
+    private final AtomicLong clientsCreated = new AtomicLong();
+    private final AtomicLong clientsReused = new AtomicLong();
+    private final AtomicLong channelsCreated = new AtomicLong();
+    private final AtomicLong channelsReused = new AtomicLong();
+
+    private volatile UserCredentials credentials;
+
+    /**
+     * Returns the shared client without a login-customer-id header.
+     */
+    public GoogleAdsClient getClient() {
+        return getClient(null);
+    }
+
+    /**
+     * Returns the shared client for the given login customer ID, creating it on first use.
+     *
+     * @param loginCustomerId The login customer ID, or null to omit the header
+     */
+    public GoogleAdsClient getClient(Long loginCustomerId) {
+        ClientKey key = new ClientKey(refreshToken, loginCustomerId);
+        GoogleAdsClient client = clients.get(key);
+        if (client != null) {
+            clientsReused.incrementAndGet();
+            return client;
+        }
+        return clients.computeIfAbsent(key, k -> {
+            clientsCreated.incrementAndGet();
+            GoogleAdsClient.Builder builder = GoogleAdsClient.newBuilder()
+                .setCredentials(getCredentials())
+                .setDeveloperToken(developerToken);
+            if (k.loginCustomerId() != null) {
+                builder.setLoginCustomerId(k.loginCustomerId());
+            }
+            return builder.build();
+        });
+    }
+
+    public GoogleAdsServiceClient getGoogleAdsServiceClient() {
+        return getGoogleAdsServiceClient(null);
+    }
+
+    public GoogleAdsServiceClient getGoogleAdsServiceClient(Long loginCustomerId) {
+        return getStub(loginCustomerId, GoogleAdsServiceClient.class,
+            client -> client.getLatestVersion().createGoogleAdsServiceClient());
+    }
+
+    public CustomerServiceClient getCustomerServiceClient(Long loginCustomerId) {
+        return getStub(loginCustomerId, CustomerServiceClient.class,
+            client -> client.getLatestVersion().createCustomerServiceClient());
+    }
+
+    public CustomerClientLinkServiceClient getCustomerClientLinkServiceClient(Long loginCustomerId) {
+        return getStub(loginCustomerId, CustomerClientLinkServiceClient.class,
+            client -> client.getLatestVersion().createCustomerClientLinkServiceClient());
+    }
+
+    public CustomerManagerLinkServiceClient getCustomerManagerLinkServiceClient(Long loginCustomerId) {
+        return getStub(loginCustomerId, CustomerManagerLinkServiceClient.class,
+            client -> client.getLatestVersion().createCustomerManagerLinkServiceClient());
+    }
+
+    /**
+     * Returns creation and reuse counters for clients and channels.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("clientsCreated", clientsCreated.get());
+        stats.put("clientsReused", clientsReused.get());
+        stats.put("channelsCreated", channelsCreated.get());
+        stats.put("channelsReused", channelsReused.get());
+        stats.put("openChannels", stubs.size());
+        return stats;
+    }
+
+    /**
+     * Shuts down every cached service stub and waits briefly for in-flight calls to finish.
+     */
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Shutting down {} Google Ads service stubs", stubs.size());
+        for (BackgroundResource stub : stubs.values()) {
+            stub.shutdown();
+        }
+        for (BackgroundResource stub : stubs.values()) {
+            try {
+                if (!stub.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    stub.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                stub.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        stubs.clear();
+        clients.clear();
+    }
+
+    private <T extends BackgroundResource> T getStub(
+            Long loginCustomerId, Class<T> type, Function<GoogleAdsClient, T> factory) {
+        StubKey key = new StubKey(new ClientKey(refreshToken, loginCustomerId), type);
+        BackgroundResource stub = stubs.get(key);
+        if (stub != null) {
+            channelsReused.incrementAndGet();
+            return type.cast(stub);
+        }
+        return type.cast(stubs.computeIfAbsent(key, k -> {
+            channelsCreated.incrementAndGet();
+            logger.info("Opening {} channel for login customer {}", type.getSimpleName(), loginCustomerId);
+            return factory.apply(getClient(loginCustomerId));
+        }));
+    }
+
+    private UserCredentials getCredentials() {
+        UserCredentials current = credentials;
+        if (current == null) {
+            synchronized (this) {
+                current = credentials;
+                if (current == null) {
+                    current = UserCredentials.newBuilder()
+                        .setClientId(clientId)
+                        .setClientSecret(clientSecret)
+                        .setRefreshToken(refreshToken)
+                        .build();
+                    credentials = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private record ClientKey(String refreshToken, Long loginCustomerId) {
+    }
+
+    private record StubKey(ClientKey clientKey, Class<?> type) {
+    }
+}
@@ -1,22 +1,32 @@
 package org.adthena.adwordsmcc.service;
 
-import com.google.ads.googleads.lib.GoogleAdsClient;
-import com.google.ads.googleads.v18.services.GoogleAdsRow;
-import com.google.ads.googleads.v18.services.GoogleAdsServiceClient;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamRequest;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamResponse;
-import com.google.api.gax.rpc.ServerStream;
-import com.google.auth.oauth2.AccessToken;
-import com.google.auth.oauth2.UserCredentials;
+import org.adthena.adwordsmcc.model.AccountRollupStatus;
 import org.adthena.adwordsmcc.model.CountryImpression;
+import org.adthena.adwordsmcc.model.CountryImpressionColumns;
+import org.adthena.adwordsmcc.model.ImpressionRollup;
+import org.adthena.adwordsmcc.service.CustomerHierarchyResolver.ClientAccount;
+import org.adthena.adwordsmcc.util.BoundedFanOut;
+import org.adthena.adwordsmcc.util.GaqlTemplate;
+import org.adthena.adwordsmcc.util.LongLongHashMap;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.time.Instant;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Simple service for retrieving impression data by country.
@@ -24,72 +34,261 @@ import java.util.List;
 @Service
 public class ImpressionService {
 
-    @Value("${google.ads.developer-token}")
-    private String developerToken;
+    private static final String IMPRESSIONS_BY_COUNTRY_QUERY =
+            "SELECT geographic_view.country_criterion_id, metrics.impressions " +
+            "FROM geographic_view " +
+            "WHERE segments.date DURING LAST_7_DAYS";
 
-    @Value("${google.ads.client-id}")
-    private String clientId;
+    private static final GaqlTemplate DAILY_IMPRESSIONS_QUERY = GaqlTemplate.compile("daily-impressions-by-country",
+            "SELECT segments.date, geographic_view.country_criterion_id, metrics.impressions " +
+            "FROM geographic_view " +
+            "WHERE segments.date BETWEEN {from:date} AND {to:date}");
 
-    @Value("${google.ads.client-secret}")
-    private String clientSecret;
+    @Value("${impressions.rollup.max-concurrency:8}")
+    private int rollupMaxConcurrency;
 
-    @Value("${google.ads.refresh-token}")
-    private String refreshToken;
+    @Value("${impressions.rollup.timeout-seconds:120}")
+    private long rollupTimeoutSeconds;
+
+    @Value("${impressions.max-range-days:366}")
+    private long maxRangeDays;
+
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
+
+    @Autowired
+    private ImpressionStore impressionStore;
+
+    @Autowired
+    private GeoTargetCatalog geoTargetCatalog;
+
+    @Autowired
+    private CustomerHierarchyResolver hierarchyResolver;
 
     /**
      * Gets impressions by country for the last 7 days.
+     * Rows for the same country are collapsed into one entry while the results stream in.
      *
      * @param customerId  The ID of the Google Ads customer account
-     * @return List of CountryImpression objects
+     * @return List of CountryImpression objects, one per country, highest impressions first
      * @throws IOException if there's an error communicating with the API
      */
     public List<CountryImpression> getImpressionsByCountry(String customerId) throws IOException {
-        // Create credentials using the properties
-        UserCredentials credentials = UserCredentials.newBuilder()
-            .setClientId(clientId)
-            .setClientSecret(clientSecret)
-            .setRefreshToken(refreshToken)
-            .build();
+        LocalDate today = LocalDate.now();
+        return getImpressionsByCountry(customerId, today.minusDays(7), today.minusDays(1));
+    }
 
-        // Build the Google Ads client
-        GoogleAdsClient googleAdsClient = GoogleAdsClient.newBuilder()
-            .setCredentials(credentials)
-            .setDeveloperToken(developerToken)
-            .build();
+    /**
+     * Gets impressions by country for an inclusive date range, answered from the local daily
+     * store. Only days that are missing or still settling are fetched from the API.
+     *
+     * @param customerId  The ID of the Google Ads customer account
+     * @param from        The first day of the range
+     * @param to          The last day of the range
+     * @return List of CountryImpression objects, one per country, highest impressions first
+     * @throws IOException if there's an error communicating with the API
+     * @throws IllegalArgumentException if the range is reversed, longer than impressions.max-range-days or ends in the future
+     */
+    public List<CountryImpression> getImpressionsByCountry(String customerId, LocalDate from, LocalDate to) throws IOException {
+        LongLongHashMap totals = collectImpressionsByCountry(customerId, from, to);
+        return toCountryImpressions(totals, geoTargetCatalog.getCountries(customerId));
+    }
 
+    /**
+     * Gets impressions by country for an inclusive date range as parallel ID and impression arrays.
+     *
+     * @param customerId  The ID of the Google Ads customer account
+     * @param from        The first day of the range
+     * @param to          The last day of the range
+     * @return Columnar impressions, one entry per country, highest impressions first
+     * @throws IOException if there's an error communicating with the API
+     * @throws IllegalArgumentException if the range is not valid, as above
+     */
+    public CountryImpressionColumns getImpressionsByCountryColumns(String customerId, LocalDate from, LocalDate to) throws IOException {
+        return toColumns(collectImpressionsByCountry(customerId, from, to), geoTargetCatalog.getCountries(customerId));
+    }
 
-        // Create a list to store the country impression data
-        List<CountryImpression> countryImpressions = new ArrayList<>();
-
-        try (GoogleAdsServiceClient googleAdsServiceClient = googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
-            // Simple GAQL query to get impressions by country for the last 7 days
-            String query = "SELECT geographic_view.country_criterion_id, metrics.impressions " +
-                    "FROM geographic_view " +
-                    "WHERE segments.date DURING LAST_7_DAYS";
-
-            // Create the search request
-            SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
-                    .setCustomerId(customerId)
-                    .setQuery(query)
-                    .build();
-
-            // Execute the search request
-            ServerStream<SearchGoogleAdsStreamResponse> stream = googleAdsServiceClient.searchStreamCallable().call(request);
-
-            // Process the results
-            for (SearchGoogleAdsStreamResponse response : stream) {
-                for (GoogleAdsRow row : response.getResultsList()) {
-                    Long countryCriterionId = row.getGeographicView().getCountryCriterionId();
-                    Long impressions = row.getMetrics().getImpressions();
-
-                    countryImpressions.add(new CountryImpression(countryCriterionId, impressions));
-                }
-            }
+    private LongLongHashMap collectImpressionsByCountry(String customerId, LocalDate from, LocalDate to) throws IOException {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("Start date " + from + " is after end date " + to);
+        }
+        if (ChronoUnit.DAYS.between(from, to) + 1 > maxRangeDays) {
+            throw new IllegalArgumentException("Date range " + from + " to " + to + " is longer than " + maxRangeDays + " days");
+        }
+        // The account's time zone is not known here, so only dates that have not begun anywhere are refused
+        if (to.isAfter(LocalDate.now(ZoneOffset.MAX))) {
+            throw new IllegalArgumentException("End date " + to + " is in the future");
+        }
+
+        try {
+            return impressionStore.query(customerId, from, to,
+                    (start, end) -> fetchDailyImpressionsByCountry(customerId, start, end));
         } catch (Exception e) {
             e.printStackTrace();
             throw new IOException("Failed to retrieve impression data: " + e.getMessage(), e);
         }
+    }
+
+    /**
+     * Fetches per-day, per-country impressions for an inclusive date range with one query. The
+     * daily store keeps the results, so the shared query cache is bypassed.
+     */
+    private Map<LocalDate, LongLongHashMap> fetchDailyImpressionsByCountry(String customerId, LocalDate from, LocalDate to)
+            throws IOException {
+        GaqlTemplate.Binding query = DAILY_IMPRESSIONS_QUERY.bind()
+                .set("from", from)
+                .set("to", to);
+
+        // Rows arrive grouped by date, so the current day's map is only looked up when the date changes
+        Map<LocalDate, LongLongHashMap> days = new HashMap<>();
+        String[] currentDate = new String[1];
+        LongLongHashMap[] currentDay = new LongLongHashMap[1];
+        queryExecutor.streamLive(null, customerId, query, row -> {
+            String date = row.getSegments().getDate();
+            if (!date.equals(currentDate[0])) {
+                currentDate[0] = date;
+                currentDay[0] = days.computeIfAbsent(LocalDate.parse(date), day -> new LongLongHashMap());
+            }
+            currentDay[0].addTo(row.getGeographicView().getCountryCriterionId(), row.getMetrics().getImpressions());
+        });
+
+        return days;
+    }
+
+    /**
+     * Builds one named CountryImpression per country, highest impressions first.
+     */
+    private List<CountryImpression> toCountryImpressions(LongLongHashMap totals, GeoTargetCatalog.Countries countries) {
+        // Create a list to store the country impression data
+        List<CountryImpression> countryImpressions = new ArrayList<>(totals.size());
+        totals.forEach((countryId, impressions) -> countryImpressions.add(new CountryImpression(
+                countryId, impressions, countries.countryCode(countryId), countries.name(countryId))));
+        countryImpressions.sort(Comparator.comparing(CountryImpression::getImpressions).reversed());
 
         return countryImpressions;
     }
+
+    /**
+     * Lays out per-country totals as parallel arrays sorted by impressions, highest first.
+     */
+    private CountryImpressionColumns toColumns(LongLongHashMap totals, GeoTargetCatalog.Countries countries) {
+        int size = totals.size();
+        long[] ids = new long[size];
+        long[] impressions = new long[size];
+        int[] cursor = new int[1];
+        totals.forEach((countryId, countryImpressions) -> {
+            ids[cursor[0]] = countryId;
+            impressions[cursor[0]] = countryImpressions;
+            cursor[0]++;
+        });
+
+        // Sort an index permutation, then gather both columns through it
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (left, right) -> Long.compare(impressions[right], impressions[left]));
+
+        long[] sortedIds = new long[size];
+        String[] countryCodes = new String[size];
+        String[] countryNames = new String[size];
+        long[] sortedImpressions = new long[size];
+        long totalImpressions = 0;
+        for (int i = 0; i < size; i++) {
+            sortedIds[i] = ids[order[i]];
+            countryCodes[i] = countries.countryCode(sortedIds[i]);
+            countryNames[i] = countries.name(sortedIds[i]);
+            sortedImpressions[i] = impressions[order[i]];
+            totalImpressions += sortedImpressions[i];
+        }
+
+        return new CountryImpressionColumns(sortedIds, countryCodes, countryNames, sortedImpressions, totalImpressions);
+    }
+
+    /**
+     * Gets impressions by country for the last 7 days, summed across every enabled client account
+     * below a manager. Accounts are queried concurrently and each one's rows are folded into
+     * primitive per-country totals as they stream in.
+     *
+     * @param managerId The ID of the manager account
+     * @return Per-country totals along with the outcome for each client account
+     * @throws IOException if the manager's client accounts cannot be listed
+     */
+    public ImpressionRollup getImpressionsByCountryForManager(String managerId) throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<ClientAccount> leafAccounts;
+        Long loginCustomerId;
+
+        try {
+            loginCustomerId = Long.parseLong(managerId);
+            leafAccounts = hierarchyResolver.listClientAccounts(loginCustomerId, managerId);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new IOException("Failed to list client accounts for manager " + managerId + ": " + e.getMessage(), e);
+        }
+
+        // Each account's totals are kept apart and only those reported OK are summed, so an account
+        // that finishes after being reported as timed out never adds to the rollup
+        ConcurrentMap<String, LongLongHashMap> accountTotalsById = new ConcurrentHashMap<>();
+        ConcurrentMap<String, Long> startedAt = new ConcurrentHashMap<>();
+
+        List<AccountRollupStatus> statuses = BoundedFanOut.map(
+                leafAccounts,
+                rollupMaxConcurrency,
+                Duration.ofSeconds(rollupTimeoutSeconds),
+                account -> {
+                    long accountStart = System.currentTimeMillis();
+                    startedAt.put(account.customerId(), accountStart);
+                    LongLongHashMap accountTotals = new LongLongHashMap();
+                    long rows = streamImpressionsByCountry(loginCustomerId, account.customerId(), accountTotals);
+
+                    long[] accountImpressions = new long[1];
+                    accountTotals.forEach((countryId, impressions) -> accountImpressions[0] += impressions);
+                    accountTotalsById.put(account.customerId(), accountTotals);
+
+                    return new AccountRollupStatus(account.customerId(), account.descriptiveName(), "OK", rows,
+                            accountImpressions[0], System.currentTimeMillis() - accountStart, null);
+                },
+                (account, failure) -> {
+                    Long accountStart = startedAt.get(account.customerId());
+                    return new AccountRollupStatus(account.customerId(), account.descriptiveName(),
+                            failure instanceof TimeoutException ? "Timeout" : "Error", 0, 0,
+                            accountStart != null ? System.currentTimeMillis() - accountStart : null, failure.getMessage());
+                });
+
+        LongLongHashMap totals = new LongLongHashMap();
+        int succeeded = 0;
+        for (AccountRollupStatus status : statuses) {
+            if ("OK".equals(status.getStatus())) {
+                succeeded++;
+                totals.addAll(accountTotalsById.get(status.getCustomerId()));
+            }
+        }
+
+        // Country names are loaded only after the totals are fixed; a cold catalog queries the API
+        GeoTargetCatalog.Countries countryNames = geoTargetCatalog.getCountries(managerId);
+        long[] totalImpressions = new long[1];
+        totals.forEach((countryId, impressions) -> totalImpressions[0] += impressions);
+        List<CountryImpression> countries = toCountryImpressions(totals, countryNames);
+
+        return new ImpressionRollup(managerId, statuses.size(), succeeded, statuses.size() - succeeded,
+                totalImpressions[0], System.currentTimeMillis() - startTime, countries, statuses);
+    }
+
+    /**
+     * Streams one account's geographic_view rows into per-country totals.
+     * Each row is added straight into the primitive map as it arrives, from the API or from the
+     * shared query cache when a recent rollup already read the account.
+     *
+     * @return The number of rows read
+     */
+    private long streamImpressionsByCountry(Long loginCustomerId, String customerId, LongLongHashMap totals) {
+        try {
+            return queryExecutor.stream(loginCustomerId, customerId, IMPRESSIONS_BY_COUNTRY_QUERY,
+                    row -> totals.addTo(row.getGeographicView().getCountryCriterionId(), row.getMetrics().getImpressions()));
+        } catch (IOException e) {
+            // The sink never throws, so this only passes on an unexpected failure
+            throw new UncheckedIOException(e);
+        }
+    }
 }
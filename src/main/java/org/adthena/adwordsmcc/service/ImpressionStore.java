@@ -0,0 +1,259 @@
+package org.adthena.adwordsmcc.service;
+
+import org.adthena.adwordsmcc.util.LongLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * File-backed store of daily impressions per (customer, date, country).
+ * Each customer has one append-only file of fixed-size records: a day header carrying the row
+ * count and fetch time, followed by that day's country rows. Re-fetching a day appends a new block
+ * that supersedes the earlier one. Files are memory-mapped once per customer to build an in-memory
+ * index, and are compacted when superseded blocks outweigh live ones.
+ * Only days that have never been fetched, or that are still settling and were fetched more than
+ * the refresh interval ago, are requested from the fetcher.
+ */
+@Component
+public class ImpressionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImpressionStore.class);
+
+    // int epochDay, long countryId or encoded row count, long impressions or fetch time
+    private static final int RECORD_BYTES = Integer.BYTES + Long.BYTES + Long.BYTES;
+    private static final String FILE_SUFFIX = ".impressions";
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 4096;
+
+    /**
+     * Fetches per-country impressions for each day of an inclusive date range.
+     * Days with no impressions may be left out of the result.
+     */
+    @FunctionalInterface
+    public interface RangeFetcher {
+        Map<LocalDate, LongLongHashMap> fetch(LocalDate from, LocalDate to) throws IOException;
+    }
+
+    private record DayTotals(long fetchedAtMillis, LongLongHashMap countries) {
+    }
+
+    private static final class CustomerSeries {
+        private final Path file;
+        private final Map<Integer, DayTotals> days = new HashMap<>();
+        private long liveRecords;
+        private long supersededRecords;
+        private boolean loaded;
+
+        private CustomerSeries(Path file) {
+            this.file = file;
+        }
+    }
+
+    @Value("${impressions.store.directory:${java.io.tmpdir}/adwords-mcc/impressions}")
+    private String directory;
+
+    @Value("${impressions.store.settling-days:3}")
+    private int settlingDays;
+
+    @Value("${impressions.store.refresh-minutes:60}")
+    private long refreshMinutes;
+
+    private final ConcurrentMap<String, CustomerSeries> series = new ConcurrentHashMap<>();
+
+    /**
+     * Returns per-country impressions summed over an inclusive date range, fetching only the days
+     * that are missing or due for a refresh. Concurrent queries for the same customer are serialized.
+     */
+    public LongLongHashMap query(String customerId, LocalDate from, LocalDate to, RangeFetcher fetcher) throws IOException {
+        String key = String.valueOf(Long.parseLong(customerId));
+        CustomerSeries customer = series.computeIfAbsent(key, id -> new CustomerSeries(Paths.get(directory, id + FILE_SUFFIX)));
+
+        synchronized (customer) {
+            if (!customer.loaded) {
+                load(customer);
+                customer.loaded = true;
+            }
+
+            long now = System.currentTimeMillis();
+            LocalDate pendingFrom = null;
+            for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+                boolean due = needsFetch(customer.days.get((int) day.toEpochDay()), day, now);
+                if (due && pendingFrom == null) {
+                    pendingFrom = day;
+                } else if (!due && pendingFrom != null) {
+                    fetchAndAppend(customer, pendingFrom, day.minusDays(1), fetcher);
+                    pendingFrom = null;
+                }
+            }
+            if (pendingFrom != null) {
+                fetchAndAppend(customer, pendingFrom, to, fetcher);
+            }
+
+            LongLongHashMap totals = new LongLongHashMap();
+            for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+                DayTotals totalsForDay = customer.days.get((int) day.toEpochDay());
+                if (totalsForDay != null) {
+                    totals.addAll(totalsForDay.countries());
+                }
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * A day is final once it was fetched more than the settling window after it ended.
+     * Days that are not final are re-fetched at most once per refresh interval. The fetch date is
+     * taken in the server's time zone rather than the account's, which moves the end of the
+     * settling window by less than a day; settling-days should leave room for that.
+     */
+    private boolean needsFetch(DayTotals stored, LocalDate day, long now) {
+        if (stored == null) {
+            return true;
+        }
+        LocalDate fetchedOn = Instant.ofEpochMilli(stored.fetchedAtMillis()).atZone(ZoneId.systemDefault()).toLocalDate();
+        if (fetchedOn.isAfter(day.plusDays(settlingDays))) {
+            return false;
+        }
+        return now - stored.fetchedAtMillis() > refreshMinutes * 60_000L;
+    }
+
+    private void fetchAndAppend(CustomerSeries customer, LocalDate from, LocalDate to, RangeFetcher fetcher) throws IOException {
+        Map<LocalDate, LongLongHashMap> fetched = fetcher.fetch(from, to);
+        long fetchedAt = System.currentTimeMillis();
+
+        Map<Integer, DayTotals> blocks = new HashMap<>();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            LongLongHashMap countries = fetched.get(day);
+            blocks.put((int) day.toEpochDay(), new DayTotals(fetchedAt, countries != null ? countries : new LongLongHashMap()));
+        }
+
+        Files.createDirectories(customer.file.getParent());
+        try (FileChannel channel = FileChannel.open(customer.file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            writeBlocks(channel, blocks);
+        }
+
+        for (Map.Entry<Integer, DayTotals> block : blocks.entrySet()) {
+            DayTotals previous = customer.days.put(block.getKey(), block.getValue());
+            long blockRecords = block.getValue().countries().size() + 1L;
+            customer.liveRecords += blockRecords;
+            if (previous != null) {
+                long previousRecords = previous.countries().size() + 1L;
+                customer.liveRecords -= previousRecords;
+                customer.supersededRecords += previousRecords;
+            }
+        }
+
+        if (customer.supersededRecords > MIN_RECORDS_BEFORE_COMPACTION && customer.supersededRecords > customer.liveRecords) {
+            compact(customer);
+        }
+    }
+
+    /**
+     * Rebuilds the in-memory index from the customer's file. A block cut short by an interrupted
+     * write is dropped and the file is truncated back to the last complete block.
+     */
+    private void load(CustomerSeries customer) throws IOException {
+        if (!Files.exists(customer.file)) {
+            return;
+        }
+
+        long validLength = 0;
+        long fileLength;
+        try (FileChannel channel = FileChannel.open(customer.file, StandardOpenOption.READ)) {
+            fileLength = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+
+            while (buffer.remaining() >= RECORD_BYTES) {
+                int epochDay = buffer.getInt();
+                long encodedCount = buffer.getLong();
+                long fetchedAt = buffer.getLong();
+                if (encodedCount >= 0) {
+                    logger.warn("Unexpected row record in {} at offset {}", customer.file, validLength);
+                    break;
+                }
+
+                long rows = -encodedCount - 1;
+                if (buffer.remaining() < rows * RECORD_BYTES) {
+                    break;
+                }
+
+                LongLongHashMap countries = new LongLongHashMap((int) rows);
+                for (long i = 0; i < rows; i++) {
+                    buffer.getInt();
+                    countries.addTo(buffer.getLong(), buffer.getLong());
+                }
+
+                DayTotals previous = customer.days.put(epochDay, new DayTotals(fetchedAt, countries));
+                customer.liveRecords += rows + 1;
+                if (previous != null) {
+                    long previousRecords = previous.countries().size() + 1L;
+                    customer.liveRecords -= previousRecords;
+                    customer.supersededRecords += previousRecords;
+                }
+                validLength = buffer.position();
+            }
+        }
+
+        if (validLength < fileLength) {
+            logger.warn("Truncating {} from {} to {} bytes after an incomplete block", customer.file, fileLength, validLength);
+            try (FileChannel channel = FileChannel.open(customer.file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        logger.info("Loaded {} days of impressions from {}", customer.days.size(), customer.file);
+    }
+
+    /**
+     * Rewrites the file with only the live block for each day.
+     */
+    private void compact(CustomerSeries customer) throws IOException {
+        Path compacted = customer.file.resolveSibling(customer.file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(compacted,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeBlocks(channel, customer.days);
+            channel.force(true);
+        }
+        Files.move(compacted, customer.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logger.info("Compacted {}: dropped {} superseded records", customer.file, customer.supersededRecords);
+        customer.supersededRecords = 0;
+    }
+
+    private void writeBlocks(FileChannel channel, Map<Integer, DayTotals> blocks) throws IOException {
+        long records = 0;
+        for (DayTotals block : blocks.values()) {
+            records += block.countries().size() + 1L;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(records * RECORD_BYTES));
+        for (Map.Entry<Integer, DayTotals> block : blocks.entrySet()) {
+            int epochDay = block.getKey();
+            LongLongHashMap countries = block.getValue().countries();
+            buffer.putInt(epochDay).putLong(-(countries.size() + 1L)).putLong(block.getValue().fetchedAtMillis());
+            countries.forEach((countryId, impressions) -> buffer.putInt(epochDay).putLong(countryId).putLong(impressions));
+        }
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package org.adthena.adwordsmcc.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.adthena.adwordsmcc.model.BulkLinkResponse;
+import org.adthena.adwordsmcc.model.ClientLinkResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs link operations as background jobs so request threads never wait on the Ads API.
+ * Jobs go onto a bounded queue served by a fixed number of workers; a full queue rejects new
+ * jobs instead of growing. Clients whose operation failed with a transient API error are tried
+ * again, with a growing pause between attempts, up to the job's attempt limit.
+ * <p>
+ * Single-client jobs submitted close together are coalesced: they collect for a short window,
+ * or until the batch is full, and then run as one bulk operation whose results are handed back
+ * to each job. Every job keeps its own ID, status and results.
+ */
+@Service
+public class LinkJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkJobService.class);
+
+    public enum Operation { SEND_INVITATION, ACCEPT_INVITATION }
+
+    enum State { QUEUED, RUNNING, COMPLETED, COMPLETED_WITH_ERRORS, FAILED }
+
+    @Value("${account-links.jobs.workers:2}")
+    private int workers;
+
+    @Value("${account-links.jobs.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${account-links.jobs.max-attempts:3}")
+    private int defaultMaxAttempts;
+
+    @Value("${account-links.jobs.retry-backoff-ms:2000}")
+    private long retryBackoffMillis;
+
+    @Value("${account-links.jobs.retained:500}")
+    private int retainedJobs;
+
+    @Value("${account-links.coalesce.window-ms:50}")
+    private long coalesceWindowMillis;
+
+    @Value("${account-links.coalesce.max-batch:100}")
+    private int coalesceMaxBatch;
+
+    @Value("${account-links.bulk.max-ids:5000}")
+    private int bulkMaxIds;
+
+    // The coalescing batch size, capped so a flushed batch never exceeds the bulk limit
+    private int coalesceBatchLimit;
+
+    @Autowired
+    private AccountLinkService accountLinkService;
+
+    private final ConcurrentMap<String, LinkJob> jobs = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService flushScheduler;
+
+    // Open batches of single-client jobs by operation and attempt limit, guarded by itself
+    private final Map<BatchKey, List<LinkJob>> openBatches = new HashMap<>();
+
+    private record BatchKey(Operation operation, int maxAttempts) {
+    }
+
+    /**
+     * A submitted link operation and its progress.
+     */
+    private static final class LinkJob {
+        private final String jobId = UUID.randomUUID().toString();
+        private final Operation operation;
+        private final List<String> clientCustomerIds;
+        private final int maxAttempts;
+        private final long submittedAtMillis = System.currentTimeMillis();
+        private volatile State state = State.QUEUED;
+        private volatile long startedAtMillis;
+        private volatile long finishedAtMillis;
+        private volatile int attempts;
+        private volatile int retries;
+        private volatile String error;
+        private volatile BulkLinkResponse result;
+
+        private LinkJob(Operation operation, List<String> clientCustomerIds, int maxAttempts) {
+            this.operation = operation;
+            this.clientCustomerIds = clientCustomerIds;
+            this.maxAttempts = maxAttempts;
+        }
+    }
+
+    @PostConstruct
+    void initExecutor() {
+        if (coalesceMaxBatch < 1) {
+            throw new IllegalArgumentException("account-links.coalesce.max-batch must be at least 1, not " + coalesceMaxBatch);
+        }
+        if (bulkMaxIds < 1) {
+            throw new IllegalArgumentException("account-links.bulk.max-ids must be at least 1, not " + bulkMaxIds);
+        }
+        coalesceBatchLimit = Math.min(coalesceMaxBatch, bulkMaxIds);
+
+        int threads = Math.max(1, workers);
+        executor = new ThreadPoolExecutor(
+            threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+            Thread.ofVirtual().name("link-job-", 0).factory(),
+            new ThreadPoolExecutor.AbortPolicy());
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("link-job-flush").factory());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flushScheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues a link operation and returns at once.
+     *
+     * @param operation         The operation to run for each client
+     * @param clientCustomerIds The client account IDs, with or without dashes
+     * @param maxAttempts       The attempt limit for this job, or null for the configured default
+     * @return The queued job's status, including its job ID
+     * @throws IllegalArgumentException if the IDs are empty or over the bulk limit
+     * @throws RejectedExecutionException if the queue is full; a coalesced single-client job
+     *                                    instead fails with an error in its status
+     */
+    public Map<String, Object> submit(Operation operation, List<String> clientCustomerIds, Integer maxAttempts) {
+        accountLinkService.checkBulkSize(clientCustomerIds);
+        if (maxAttempts != null && (maxAttempts < 1 || maxAttempts > 10)) {
+            throw new IllegalArgumentException("maxAttempts must be between 1 and 10");
+        }
+
+        LinkJob job = new LinkJob(operation, new ArrayList<>(clientCustomerIds), maxAttempts != null ? maxAttempts : defaultMaxAttempts);
+        jobs.put(job.jobId, job);
+        if (job.clientCustomerIds.size() == 1 && coalesceWindowMillis > 0 && coalesceBatchLimit > 1) {
+            coalesce(job);
+        } else {
+            try {
+                executor.execute(() -> run(List.of(job)));
+            } catch (RejectedExecutionException e) {
+                jobs.remove(job.jobId);
+                throw e;
+            }
+        }
+        evictFinishedJobs();
+        return status(job, false);
+    }
+
+    /**
+     * @return The job's status with per-client results once it has finished, or null if there is no such job
+     */
+    public Map<String, Object> getStatus(String jobId) {
+        LinkJob job = jobs.get(jobId);
+        return job != null ? status(job, true) : null;
+    }
+
+    /**
+     * @return The status of every retained job, without per-client results
+     */
+    public List<Map<String, Object>> getAllStatuses() {
+        List<Map<String, Object>> statuses = new ArrayList<>();
+        for (LinkJob job : jobs.values()) {
+            statuses.add(status(job, false));
+        }
+        statuses.sort((a, b) -> ((String) b.get("submittedAt")).compareTo((String) a.get("submittedAt")));
+        return statuses;
+    }
+
+    /**
+     * Adds a single-client job to the open batch for its operation and attempt limit. The first
+     * job in a batch schedules its flush after the coalescing window; the job that fills it
+     * flushes it at once.
+     */
+    private void coalesce(LinkJob job) {
+        BatchKey key = new BatchKey(job.operation, job.maxAttempts);
+        List<LinkJob> batch;
+        boolean full;
+        synchronized (openBatches) {
+            batch = openBatches.computeIfAbsent(key, k -> new ArrayList<>());
+            batch.add(job);
+            full = batch.size() >= coalesceBatchLimit;
+            if (full) {
+                openBatches.remove(key);
+            } else if (batch.size() == 1) {
+                List<LinkJob> scheduled = batch;
+                flushScheduler.schedule(() -> flush(key, scheduled), coalesceWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            execute(batch);
+        }
+    }
+
+    private void flush(BatchKey key, List<LinkJob> batch) {
+        synchronized (openBatches) {
+            // Already flushed because it filled up before the window closed
+            if (!openBatches.remove(key, batch)) {
+                return;
+            }
+        }
+        execute(batch);
+    }
+
+    private void execute(List<LinkJob> batch) {
+        try {
+            executor.execute(() -> run(batch));
+        } catch (RejectedExecutionException e) {
+            long now = System.currentTimeMillis();
+            for (LinkJob job : batch) {
+                job.error = "Too many link jobs queued; try again later";
+                job.state = State.FAILED;
+                job.finishedAtMillis = now;
+            }
+            logger.warn("Rejected a batch of {} coalesced {} jobs", batch.size(), batch.get(0).operation);
+        }
+    }
+
+    /**
+     * Runs one bulk operation over the clients of every job in the batch, which all share an
+     * operation and attempt limit, and hands each job the results for its own clients.
+     */
+    private void run(List<LinkJob> batch) {
+        LinkJob first = batch.get(0);
+        long startedAt = System.currentTimeMillis();
+        List<String> pending = new ArrayList<>();
+        for (LinkJob job : batch) {
+            job.state = State.RUNNING;
+            job.startedAtMillis = startedAt;
+            pending.addAll(job.clientCustomerIds);
+        }
+
+        Map<String, ClientLinkResult> results = new HashMap<>();
+        BulkLinkResponse last = null;
+
+        try {
+            for (int attempt = 1; attempt <= first.maxAttempts && !pending.isEmpty(); attempt++) {
+                for (LinkJob job : batch) {
+                    job.attempts = attempt;
+                }
+                List<String> retry = new ArrayList<>();
+
+                try {
+                    last = first.operation == Operation.SEND_INVITATION
+                        ? accountLinkService.sendInvitations(pending)
+                        : accountLinkService.acceptInvitations(pending);
+
+                    for (ClientLinkResult result : last.getResults()) {
+                        results.put(result.getClientCustomerId(), result);
+                        if (!result.isSuccess() && result.isRetryable()) {
+                            retry.add(result.getClientCustomerId());
+                        }
+                    }
+                } catch (IOException e) {
+                    // The whole attempt failed before any mutation, so every pending client is tried again
+                    if (attempt == first.maxAttempts) {
+                        throw e;
+                    }
+                    retry.addAll(pending);
+                }
+
+                if (retry.isEmpty() || attempt == first.maxAttempts) {
+                    break;
+                }
+                Set<String> retryKeys = new HashSet<>();
+                for (String clientCustomerId : retry) {
+                    retryKeys.add(AccountLinkService.resultKey(clientCustomerId));
+                }
+                for (LinkJob job : batch) {
+                    for (String clientCustomerId : job.clientCustomerIds) {
+                        if (retryKeys.contains(AccountLinkService.resultKey(clientCustomerId))) {
+                            job.retries++;
+                        }
+                    }
+                }
+                pending = retry;
+                Thread.sleep(retryBackoffMillis * attempt);
+            }
+
+            String managerId = last != null ? last.getManagerId() : null;
+            for (LinkJob job : batch) {
+                complete(job, managerId, results);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (LinkJob job : batch) {
+                job.error = "Interrupted";
+                job.state = State.FAILED;
+            }
+        } catch (Exception e) {
+            logger.error("Link job {} failed", batch.size() == 1 ? first.jobId : batch.size() + " coalesced jobs", e);
+            for (LinkJob job : batch) {
+                job.error = e.getMessage();
+                job.state = State.FAILED;
+            }
+        } finally {
+            long finishedAt = System.currentTimeMillis();
+            for (LinkJob job : batch) {
+                job.finishedAtMillis = finishedAt;
+            }
+            if (batch.size() == 1) {
+                logger.info("Link job {} ({} for {} clients) ended as {} after {} attempts",
+                    first.jobId, first.operation, first.clientCustomerIds.size(), first.state, first.attempts);
+            } else {
+                logger.info("Batch of {} coalesced {} jobs ended after {} attempts in {}ms",
+                    batch.size(), first.operation, first.attempts, finishedAt - startedAt);
+            }
+        }
+    }
+
+    /**
+     * Sets the job's result from the batch results for its own clients.
+     */
+    private void complete(LinkJob job, String managerId, Map<String, ClientLinkResult> batchResults) {
+        Map<String, ClientLinkResult> results = new LinkedHashMap<>();
+        for (String clientCustomerId : job.clientCustomerIds) {
+            String key = AccountLinkService.resultKey(clientCustomerId);
+            ClientLinkResult result = batchResults.get(key);
+            if (result != null) {
+                results.putIfAbsent(key, result);
+            }
+        }
+
+        int succeeded = 0;
+        for (ClientLinkResult result : results.values()) {
+            if (result.isSuccess()) {
+                succeeded++;
+            }
+        }
+        job.result = new BulkLinkResponse(
+            managerId,
+            results.size(),
+            succeeded,
+            results.size() - succeeded,
+            System.currentTimeMillis() - job.startedAtMillis,
+            new ArrayList<>(results.values()));
+        job.state = succeeded == results.size() ? State.COMPLETED : State.COMPLETED_WITH_ERRORS;
+    }
+
+    /**
+     * Drops the oldest finished jobs once more than the retention limit are held.
+     */
+    private void evictFinishedJobs() {
+        int excess = jobs.size() - retainedJobs;
+        if (excess <= 0) {
+            return;
+        }
+
+        List<LinkJob> finished = new ArrayList<>();
+        for (LinkJob job : jobs.values()) {
+            if (job.finishedAtMillis > 0) {
+                finished.add(job);
+            }
+        }
+        finished.sort((a, b) -> Long.compare(a.finishedAtMillis, b.finishedAtMillis));
+        Iterator<LinkJob> oldest = finished.iterator();
+        while (excess-- > 0 && oldest.hasNext()) {
+            jobs.remove(oldest.next().jobId);
+        }
+    }
+
+    private Map<String, Object> status(LinkJob job, boolean includeResults) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("jobId", job.jobId);
+        status.put("operation", job.operation.name());
+        status.put("state", job.state.name());
+        status.put("submittedAt", Instant.ofEpochMilli(job.submittedAtMillis).toString());
+        status.put("startedAt", job.startedAtMillis > 0 ? Instant.ofEpochMilli(job.startedAtMillis).toString() : null);
+        status.put("finishedAt", job.finishedAtMillis > 0 ? Instant.ofEpochMilli(job.finishedAtMillis).toString() : null);
+        status.put("clients", job.clientCustomerIds.size());
+        status.put("attempts", job.attempts);
+        status.put("maxAttempts", job.maxAttempts);
+        status.put("retries", job.retries);
+        status.put("error", job.error);
+
+        BulkLinkResponse result = job.result;
+        if (result != null) {
+            status.put("succeeded", result.getSucceeded());
+            status.put("failed", result.getFailed());
+            if (includeResults) {
+                status.put("results", result.getResults());
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,289 @@
+package org.adthena.adwordsmcc.service;
+
+import com.google.ads.googleads.v18.enums.ManagerLinkStatusEnum.ManagerLinkStatus;
+import com.google.ads.googleads.v18.resources.CustomerClientLink;
+import jakarta.annotation.PreDestroy;
+import org.adthena.adwordsmcc.model.ClientLinkState;
+import org.adthena.adwordsmcc.util.LongIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory index of link status by client ID for the configured manager. A background
+ * reconciliation reads every customer_client_link row under the manager with one query and swaps
+ * in an immutable snapshot keyed by a primitive map. Link operations record the states they
+ * produce on top of the snapshot so the index stays current between reconciliations; a recorded
+ * state is dropped once a reconciliation that started after it has been swapped in.
+ */
+@Service
+public class LinkStateIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkStateIndex.class);
+
+    private static final String LINK_QUERY = "SELECT customer_client_link.client_customer, " +
+        "customer_client_link.manager_link_id, customer_client_link.status " +
+        "FROM customer_client_link";
+
+    @Value("${google.ads.manager-id:}")
+    private String managerId;
+
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private final ConcurrentMap<Long, LocalChange> localChanges = new ConcurrentHashMap<>();
+    private final AtomicBoolean reconciling = new AtomicBoolean();
+    private final ExecutorService reconcileExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile String lastError;
+
+    private record LocalChange(ManagerLinkStatus status, long managerLinkId, long recordedAtMillis) {
+    }
+
+    /**
+     * Link states as read by one reconciliation, in parallel arrays indexed through the map.
+     */
+    private static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(new long[0], new int[0], new long[0], 0L, 0L);
+
+        private final LongIntHashMap index;
+        private final long[] clientIds;
+        private final int[] statuses;
+        private final long[] managerLinkIds;
+        private final long startedAtMillis;
+        private final long reconciledAtMillis;
+
+        private Snapshot(long[] clientIds, int[] statuses, long[] managerLinkIds, long startedAtMillis, long reconciledAtMillis) {
+            this.clientIds = clientIds;
+            this.statuses = statuses;
+            this.managerLinkIds = managerLinkIds;
+            this.startedAtMillis = startedAtMillis;
+            this.reconciledAtMillis = reconciledAtMillis;
+            this.index = new LongIntHashMap(clientIds.length);
+            for (int i = 0; i < clientIds.length; i++) {
+                index.put(clientIds[i], i);
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        reconcileExecutor.shutdownNow();
+    }
+
+    /**
+     * Reconciles the index with the API on a fixed delay.
+     */
+    @Scheduled(
+        initialDelayString = "${link-state.initial-delay-seconds:10}",
+        fixedDelayString = "${link-state.reconcile-seconds:300}",
+        timeUnit = TimeUnit.SECONDS)
+    void scheduledReconcile() {
+        if (managerId == null || managerId.isBlank()) {
+            return;
+        }
+        reconcile();
+    }
+
+    /**
+     * Starts a reconciliation in the background.
+     *
+     * @return false if one is already running
+     */
+    public boolean requestReconcile() {
+        if (managerId == null || managerId.isBlank()) {
+            throw new IllegalArgumentException("google.ads.manager-id is not set");
+        }
+        if (reconciling.get()) {
+            return false;
+        }
+        reconcileExecutor.execute(this::reconcile);
+        return true;
+    }
+
+    /**
+     * Reads every client link under the manager and swaps in the new snapshot. Does nothing if a
+     * reconciliation is already running.
+     */
+    public void reconcile() {
+        if (!reconciling.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long startedAt = System.currentTimeMillis();
+            long managerIdValue = Long.parseLong(managerId);
+            // A client can have several links over time; the most significant one wins
+            LongIntHashMap positions = new LongIntHashMap();
+            List<CustomerClientLink> links = new ArrayList<>();
+            queryExecutor.streamLive(managerIdValue, String.valueOf(managerIdValue), LINK_QUERY, row -> {
+                CustomerClientLink link = row.getCustomerClientLink();
+                long clientId = clientIdOf(link.getClientCustomer());
+                int position = positions.putIfAbsent(clientId, links.size(), -1);
+                if (position < 0) {
+                    links.add(link);
+                } else if (supersedes(link, links.get(position))) {
+                    links.set(position, link);
+                }
+            });
+
+            long[] clientIds = new long[links.size()];
+            int[] statuses = new int[links.size()];
+            long[] managerLinkIds = new long[links.size()];
+            for (int i = 0; i < links.size(); i++) {
+                CustomerClientLink link = links.get(i);
+                clientIds[i] = clientIdOf(link.getClientCustomer());
+                statuses[i] = link.getStatusValue();
+                managerLinkIds[i] = link.getManagerLinkId();
+            }
+
+            snapshot = new Snapshot(clientIds, statuses, managerLinkIds, startedAt, System.currentTimeMillis());
+            localChanges.values().removeIf(change -> change.recordedAtMillis() < startedAt);
+            lastError = null;
+            logger.info("Reconciled {} client links for manager {} in {}ms",
+                clientIds.length, managerIdValue, System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            logger.warn("Link state reconciliation for manager {} failed: {}", managerId, e.getMessage());
+        } finally {
+            reconciling.set(false);
+        }
+    }
+
+    /**
+     * Records the state a link operation just produced.
+     */
+    public void record(long clientCustomerId, ManagerLinkStatus status, long managerLinkId) {
+        localChanges.put(clientCustomerId, new LocalChange(status, managerLinkId, System.currentTimeMillis()));
+    }
+
+    /**
+     * Returns the manager link ID of the client's pending invitation, or -1 if the index does not
+     * know of one.
+     */
+    public long pendingManagerLinkId(long clientCustomerId) {
+        LocalChange change = localChanges.get(clientCustomerId);
+        if (change != null) {
+            return change.status() == ManagerLinkStatus.PENDING ? change.managerLinkId() : -1L;
+        }
+
+        Snapshot current = snapshot;
+        int i = current.index.get(clientCustomerId, -1);
+        return i >= 0 && current.statuses[i] == ManagerLinkStatus.PENDING_VALUE ? current.managerLinkIds[i] : -1L;
+    }
+
+    /**
+     * @return The client's link state, or null if the index has no link for it
+     */
+    public ClientLinkState get(long clientCustomerId) {
+        LocalChange change = localChanges.get(clientCustomerId);
+        if (change != null) {
+            return new ClientLinkState(String.valueOf(clientCustomerId), change.status().name(), change.managerLinkId(),
+                "local", Instant.ofEpochMilli(change.recordedAtMillis()).toString());
+        }
+
+        Snapshot current = snapshot;
+        int i = current.index.get(clientCustomerId, -1);
+        return i >= 0 ? fromSnapshot(current, i) : null;
+    }
+
+    /**
+     * Lists link states, optionally only those with the given status.
+     *
+     * @param status The status to filter on, or null for all
+     * @param limit  The maximum number of states to return
+     */
+    public List<ClientLinkState> list(ManagerLinkStatus status, int limit) {
+        Snapshot current = snapshot;
+        List<ClientLinkState> states = new ArrayList<>();
+
+        for (Map.Entry<Long, LocalChange> entry : localChanges.entrySet()) {
+            if (states.size() >= limit) {
+                return states;
+            }
+            if (status == null || entry.getValue().status() == status) {
+                states.add(get(entry.getKey()));
+            }
+        }
+        for (int i = 0; i < current.clientIds.length && states.size() < limit; i++) {
+            if (localChanges.containsKey(current.clientIds[i])) {
+                continue;
+            }
+            if (status == null || current.statuses[i] == status.getNumber()) {
+                states.add(fromSnapshot(current, i));
+            }
+        }
+        return states;
+    }
+
+    public Map<String, Object> getStatus() {
+        Snapshot current = snapshot;
+        Map<ManagerLinkStatus, Integer> counts = new EnumMap<>(ManagerLinkStatus.class);
+        for (int status : current.statuses) {
+            counts.merge(statusOf(status), 1, Integer::sum);
+        }
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("managerId", managerId);
+        status.put("reconciledAt", current.reconciledAtMillis > 0 ? Instant.ofEpochMilli(current.reconciledAtMillis).toString() : null);
+        status.put("reconcileMs", current.reconciledAtMillis - current.startedAtMillis);
+        status.put("clients", current.clientIds.length);
+        status.put("statusCounts", counts);
+        status.put("localChanges", localChanges.size());
+        status.put("reconciling", reconciling.get());
+        status.put("lastError", lastError);
+        return status;
+    }
+
+    private ClientLinkState fromSnapshot(Snapshot current, int i) {
+        return new ClientLinkState(String.valueOf(current.clientIds[i]), statusOf(current.statuses[i]).name(),
+            current.managerLinkIds[i], "reconciled", Instant.ofEpochMilli(current.reconciledAtMillis).toString());
+    }
+
+    /**
+     * An active link outranks a pending one, which outranks any ended link; among equals the
+     * newer link, which has the higher manager link ID, wins.
+     */
+    private static boolean supersedes(CustomerClientLink candidate, CustomerClientLink existing) {
+        int candidateRank = rank(candidate.getStatus());
+        int existingRank = rank(existing.getStatus());
+        if (candidateRank != existingRank) {
+            return candidateRank > existingRank;
+        }
+        return candidate.getManagerLinkId() > existing.getManagerLinkId();
+    }
+
+    private static int rank(ManagerLinkStatus status) {
+        return switch (status) {
+            case ACTIVE -> 2;
+            case PENDING -> 1;
+            default -> 0;
+        };
+    }
+
+    private static ManagerLinkStatus statusOf(int number) {
+        ManagerLinkStatus status = ManagerLinkStatus.forNumber(number);
+        return status != null ? status : ManagerLinkStatus.UNKNOWN;
+    }
+
+    private static long clientIdOf(String clientResourceName) {
+        return Long.parseLong(clientResourceName.substring(clientResourceName.lastIndexOf('/') + 1));
+    }
+}
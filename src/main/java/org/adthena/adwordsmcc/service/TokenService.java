@@ -1,8 +1,19 @@
 package org.adthena.adwordsmcc.service;
 
+import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.UserCredentials;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -11,9 +22,17 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+/**
+ * Service for resolving OAuth access tokens and the authenticated user's email.
+ * Access tokens are cached until shortly before they expire and refreshed in the background
+ * once they enter the refresh-ahead window; concurrent callers share a single in-flight refresh.
+ * Resolved emails are cached per refresh token so the userinfo call leaves the request path.
+ */
 @Service
 public class TokenService {
 
+    private static final long EXPIRY_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
     @Value("${google.ads.client-id}")
     private String clientId;
 
@@ -23,10 +42,112 @@ public class TokenService {
     @Value("${google.ads.refresh-token}")
     private String refreshToken;
 
+    @Value("${google.ads.token.refresh-ahead-seconds:300}")
+    private long refreshAheadSeconds;
+
+    private final ConcurrentMap<String, String> emailsByRefreshToken = new ConcurrentHashMap<>();
+    private final AtomicReference<CompletableFuture<AccessToken>> inFlightRefresh = new AtomicReference<>();
+    private final ExecutorService refreshExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private volatile AccessToken cachedToken;
+    private volatile UserCredentials credentials;
+
     public String getUserEmailFromToken() throws IOException {
-        UserCredentials credentials = createUserCredentials();
-        String accessToken = getAccessToken(credentials);
-        return fetchUserEmailFromGoogleApi(accessToken);
+        String email = emailsByRefreshToken.get(refreshToken);
+        if (email != null) {
+            return email;
+        }
+        String accessToken = getAccessToken();
+        return emailsByRefreshToken.computeIfAbsent(refreshToken, key -> fetchUserEmailFromGoogleApi(accessToken));
+    }
+
+    /**
+     * Returns a valid access token, refreshing it only when the cached one is missing or expired.
+     * A token inside the refresh-ahead window is returned as-is while a background refresh runs.
+     */
+    public String getAccessToken() throws IOException {
+        AccessToken token = cachedToken;
+        long now = System.currentTimeMillis();
+
+        if (token != null && !isExpired(token, now)) {
+            if (isStale(token, now)) {
+                refreshAsync();
+            }
+            return token.getTokenValue();
+        }
+
+        return awaitRefresh(refreshAsync()).getTokenValue();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private CompletableFuture<AccessToken> refreshAsync() {
+        while (true) {
+            CompletableFuture<AccessToken> existing = inFlightRefresh.get();
+            if (existing != null) {
+                return existing;
+            }
+
+            CompletableFuture<AccessToken> refresh = new CompletableFuture<>();
+            if (inFlightRefresh.compareAndSet(null, refresh)) {
+                refreshExecutor.execute(() -> runRefresh(refresh));
+                return refresh;
+            }
+        }
+    }
+
+    private void runRefresh(CompletableFuture<AccessToken> refresh) {
+        try {
+            AccessToken token = getCredentials().refreshAccessToken();
+            cachedToken = token;
+            inFlightRefresh.compareAndSet(refresh, null);
+            refresh.complete(token);
+        } catch (Throwable e) {
+            inFlightRefresh.compareAndSet(refresh, null);
+            refresh.completeExceptionally(e);
+        }
+    }
+
+    private AccessToken awaitRefresh(CompletableFuture<AccessToken> refresh) throws IOException {
+        try {
+            return refresh.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while refreshing access token", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Failed to refresh access token: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private boolean isExpired(AccessToken token, long now) {
+        Date expirationTime = token.getExpirationTime();
+        return expirationTime != null && now >= expirationTime.getTime() - EXPIRY_MARGIN_MILLIS;
+    }
+
+    private boolean isStale(AccessToken token, long now) {
+        Date expirationTime = token.getExpirationTime();
+        return expirationTime != null
+            && now >= expirationTime.getTime() - TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+    }
+
+    private UserCredentials getCredentials() {
+        UserCredentials current = credentials;
+        if (current == null) {
+            synchronized (this) {
+                current = credentials;
+                if (current == null) {
+                    current = createUserCredentials();
+                    credentials = current;
+                }
+            }
+        }
+        return current;
     }
 
     private UserCredentials createUserCredentials() {
@@ -37,18 +158,13 @@ public class TokenService {
             .build();
     }
 
-    private String getAccessToken(UserCredentials credentials) throws IOException {
-        credentials.refresh();
-        return credentials.getAccessToken().getTokenValue();
-    }
-
     private String fetchUserEmailFromGoogleApi(String accessToken) {
         RestTemplate restTemplate = new RestTemplate();
-        
+
         HttpHeaders headers = new HttpHeaders();
         headers.setBearerAuth(accessToken);
         HttpEntity<String> entity = new HttpEntity<>(headers);
-        
+
         try {
             ResponseEntity<Map> response = restTemplate.exchange(
                 "https://www.googleapis.com/oauth2/v2/userinfo",
@@ -56,7 +172,7 @@ public class TokenService {
                 entity,
                 Map.class
             );
-            
+
             Map<String, Object> userInfo = response.getBody();
             return (String) userInfo.get("email");
         } catch (Exception e) {
@@ -1,62 +1,49 @@
 package org.adthena.adwordsmcc.service;
 
-import com.google.ads.googleads.lib.GoogleAdsClient;
 import com.google.ads.googleads.v18.enums.AccessRoleEnum.AccessRole;
 import com.google.ads.googleads.v18.resources.CustomerUserAccess;
 import com.google.ads.googleads.v18.services.GoogleAdsRow;
-import com.google.ads.googleads.v18.services.GoogleAdsServiceClient;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamRequest;
-import com.google.ads.googleads.v18.services.SearchGoogleAdsStreamResponse;
-import com.google.api.gax.rpc.ServerStream;
+import java.util.List;
 import java.util.Optional;
+import org.adthena.adwordsmcc.util.GaqlTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 @Service
 public class UserAccessService {
 
-    public Optional<CustomerUserAccess> getCustomerUserAccess(
-            GoogleAdsClient googleAdsClient, long customerId, String emailAddress) {
+    private static final GaqlTemplate USER_ACCESS_QUERY = GaqlTemplate.compile("user-access",
+        "SELECT "
+            + "  customer_user_access.user_id,"
+            + "  customer_user_access.email_address,"
+            + "  customer_user_access.access_role,"
+            + "  customer_user_access.access_creation_date_time "
+            + "FROM customer_user_access "
+            + "WHERE"
+            + "  customer_user_access.email_address = {email:string}");
 
-        String query = buildUserAccessQuery(emailAddress);
+    @Autowired
+    private GaqlQueryExecutor queryExecutor;
 
-        try (GoogleAdsServiceClient googleAdsServiceClient =
-                googleAdsClient.getLatestVersion().createGoogleAdsServiceClient()) {
+    public Optional<CustomerUserAccess> getCustomerUserAccess(
+            Long loginCustomerId, long customerId, String emailAddress) {
 
-            ServerStream<SearchGoogleAdsStreamResponse> stream = executeUserAccessQuery(
-                googleAdsServiceClient, customerId, query);
+        GaqlTemplate.Binding query = buildUserAccessQuery(emailAddress);
 
-            return extractUserAccessFromResponse(stream);
-        }
-    }
+        List<GoogleAdsRow> rows = queryExecutor.search(loginCustomerId, String.valueOf(customerId), query);
 
-    private String buildUserAccessQuery(String emailAddress) {
-        return String.format(
-            "SELECT "
-                + "  customer_user_access.user_id,"
-                + "  customer_user_access.email_address,"
-                + "  customer_user_access.access_role,"
-                + "  customer_user_access.access_creation_date_time "
-                + "FROM customer_user_access "
-                + "WHERE"
-                + "  customer_user_access.email_address = '%s'",
-            emailAddress);
+        return extractUserAccessFromRows(rows);
     }
 
-    private ServerStream<SearchGoogleAdsStreamResponse> executeUserAccessQuery(
-            GoogleAdsServiceClient googleAdsServiceClient, long customerId, String query) {
-        SearchGoogleAdsStreamRequest request = SearchGoogleAdsStreamRequest.newBuilder()
-            .setCustomerId(String.valueOf(customerId))
-            .setQuery(query)
-            .build();
-        return googleAdsServiceClient.searchStreamCallable().call(request);
+    private GaqlTemplate.Binding buildUserAccessQuery(String emailAddress) {
+        return USER_ACCESS_QUERY.bind()
+            .set("email", emailAddress);
     }
 
-    private Optional<CustomerUserAccess> extractUserAccessFromResponse(ServerStream<SearchGoogleAdsStreamResponse> stream) {
-        for (SearchGoogleAdsStreamResponse response : stream) {
-            for (GoogleAdsRow row : response.getResultsList()) {
-                if (row.hasCustomerUserAccess()) {
-                    return Optional.of(row.getCustomerUserAccess());
-                }
+    private Optional<CustomerUserAccess> extractUserAccessFromRows(List<GoogleAdsRow> rows) {
+        for (GoogleAdsRow row : rows) {
+            if (row.hasCustomerUserAccess()) {
+                return Optional.of(row.getCustomerUserAccess());
             }
         }
         return Optional.empty();
@@ -0,0 +1,87 @@
+package org.adthena.adwordsmcc.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Runs one blocking task per input on virtual threads, with a cap on how many run at once
+ * and an overall deadline. Results come back in input order; inputs whose task fails or
+ * misses the deadline are mapped through a fallback instead of failing the whole batch.
+ */
+public final class BoundedFanOut {
+
+    private BoundedFanOut() {
+    }
+
+    /**
+     * Applies the task to every input concurrently.
+     *
+     * @param inputs         The inputs, in the order results should be returned
+     * @param maxConcurrency The maximum number of tasks running at the same time
+     * @param timeout        The overall deadline for the whole batch
+     * @param task           The blocking task to run per input
+     * @param onFailure      Maps an input and its failure (a {@link TimeoutException} on deadline) to a result
+     * @return One result per input, in input order
+     */
+    public static <T, R> List<R> map(
+            List<T> inputs,
+            int maxConcurrency,
+            Duration timeout,
+            Function<T, R> task,
+            BiFunction<T, Throwable, R> onFailure) {
+
+        Semaphore permits = new Semaphore(Math.max(1, maxConcurrency));
+        long deadline = System.nanoTime() + timeout.toNanos();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        try {
+            List<Future<R>> futures = new ArrayList<>(inputs.size());
+            for (T input : inputs) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return task.apply(input);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            List<R> results = new ArrayList<>(inputs.size());
+            for (int i = 0; i < inputs.size(); i++) {
+                results.add(await(futures.get(i), inputs.get(i), deadline, onFailure));
+            }
+            return results;
+        } finally {
+            // Tasks past the deadline are abandoned rather than awaited
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T, R> R await(
+            Future<R> future, T input, long deadline, BiFunction<T, Throwable, R> onFailure) {
+        try {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            return future.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return onFailure.apply(input, e);
+        } catch (ExecutionException e) {
+            return onFailure.apply(input, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return onFailure.apply(input, e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.adthena.adwordsmcc.util;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The set of response fields a caller asked for with a {@code fields=} parameter.
+ * An absent or blank parameter selects every field.
+ */
+public final class FieldSelection {
+
+    private static final FieldSelection ALL = new FieldSelection(null);
+
+    private final Set<String> fields;
+
+    private FieldSelection(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    public static FieldSelection all() {
+        return ALL;
+    }
+
+    /**
+     * Parses a comma-separated field list.
+     *
+     * @param fieldList The parameter value, or null
+     * @param allowed   The field names the endpoint supports
+     * @throws IllegalArgumentException if a field is not supported
+     */
+    public static FieldSelection parse(String fieldList, Set<String> allowed) {
+        if (fieldList == null || fieldList.isBlank()) {
+            return ALL;
+        }
+
+        Set<String> fields = new TreeSet<>();
+        for (String field : fieldList.split(",")) {
+            String name = field.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!allowed.contains(name)) {
+                throw new IllegalArgumentException("Unknown field '" + name + "'; supported fields are " + new TreeSet<>(allowed));
+            }
+            fields.add(name);
+        }
+        return fields.isEmpty() ? ALL : new FieldSelection(fields);
+    }
+
+    public boolean includes(String field) {
+        return fields == null || fields.contains(field);
+    }
+
+    /**
+     * A stable key for the selection, for use in cache keys.
+     */
+    public String key() {
+        return fields == null ? "*" : String.join(",", fields);
+    }
+}
@@ -0,0 +1,254 @@
+package org.adthena.adwordsmcc.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A GAQL query with typed parameters, parsed and checked once when it is compiled. Parameters are
+ * written as {@code {name:type}} outside any quoted literal, for example
+ * {@code WHERE customer_user_access.email_address = {email:string}}, and are rendered from
+ * bound values with the quoting and escaping their type needs. Templates are meant to be held in
+ * static fields so a malformed one fails when its class loads rather than on first use.
+ * <p>
+ * The fingerprint identifies the template text, independent of bound values and whitespace, so
+ * caches and metrics can group executions of the same query.
+ */
+public final class GaqlTemplate {
+
+    public enum ParamType { LONG, STRING, DATE, DATETIME, STRING_LIST }
+
+    private static final Pattern PARAM_NAME = Pattern.compile("[a-zA-Z][a-zA-Z0-9]*");
+    private static final DateTimeFormatter DATETIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final String name;
+    private final String fingerprint;
+    private final List<String> literals;
+    private final List<String> paramNames;
+    private final Map<String, ParamType> paramTypes;
+
+    private GaqlTemplate(String name, String fingerprint, List<String> literals, List<String> paramNames,
+                         Map<String, ParamType> paramTypes) {
+        this.name = name;
+        this.fingerprint = fingerprint;
+        this.literals = literals;
+        this.paramNames = paramNames;
+        this.paramTypes = paramTypes;
+    }
+
+    /**
+     * Parses and validates a template.
+     *
+     * @param name     A short name for logs and metrics
+     * @param template The GAQL text with {@code {name:type}} placeholders
+     * @throws IllegalArgumentException if the template is malformed
+     */
+    public static GaqlTemplate compile(String name, String template) {
+        String text = template.strip().replaceAll("\\s+", " ");
+        if (!text.regionMatches(true, 0, "SELECT ", 0, 7) || !text.toUpperCase().contains(" FROM ")) {
+            throw new IllegalArgumentException("GAQL template " + name + " must be a SELECT ... FROM query");
+        }
+
+        List<String> literals = new ArrayList<>();
+        List<String> paramNames = new ArrayList<>();
+        Map<String, ParamType> paramTypes = new LinkedHashMap<>();
+        StringBuilder literal = new StringBuilder();
+        char quote = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                literal.append(c);
+                if (c == '\\' && i + 1 < text.length()) {
+                    literal.append(text.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                literal.append(c);
+            } else if (c == '{') {
+                int end = text.indexOf('}', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("GAQL template " + name + " has an unclosed '{' at " + i);
+                }
+                String[] placeholder = text.substring(i + 1, end).split(":", -1);
+                if (placeholder.length != 2 || !PARAM_NAME.matcher(placeholder[0]).matches()) {
+                    throw new IllegalArgumentException("GAQL template " + name + " has a malformed parameter at " + i);
+                }
+                ParamType type = parseType(name, placeholder[1]);
+                ParamType previous = paramTypes.putIfAbsent(placeholder[0], type);
+                if (previous != null && previous != type) {
+                    throw new IllegalArgumentException("GAQL template " + name + " declares parameter " + placeholder[0] + " with two types");
+                }
+                literals.add(literal.toString());
+                paramNames.add(placeholder[0]);
+                literal.setLength(0);
+                i = end;
+            } else if (c == '}') {
+                throw new IllegalArgumentException("GAQL template " + name + " has an unmatched '}' at " + i);
+            } else {
+                literal.append(c);
+            }
+        }
+        if (quote != 0) {
+            throw new IllegalArgumentException("GAQL template " + name + " has an unterminated quoted literal");
+        }
+        literals.add(literal.toString());
+
+        return new GaqlTemplate(name, fingerprintOf(text), List.copyOf(literals), List.copyOf(paramNames), paramTypes);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * The first 16 hex digits of the SHA-256 of the whitespace-normalized template text.
+     */
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    public Binding bind() {
+        return new Binding();
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + fingerprint;
+    }
+
+    /**
+     * Parameter values for one rendering of the template.
+     */
+    public final class Binding {
+
+        private final Map<String, String> rendered = new HashMap<>();
+
+        private Binding() {
+        }
+
+        /**
+         * Binds a parameter. Longs take any integral number, strings a String, dates a LocalDate,
+         * datetimes a LocalDateTime and string lists a non-empty collection of strings.
+         *
+         * @throws IllegalArgumentException if the template has no such parameter or the value does not fit its type
+         */
+        public Binding set(String param, Object value) {
+            ParamType type = paramTypes.get(param);
+            if (type == null) {
+                throw new IllegalArgumentException("GAQL template " + name + " has no parameter " + param);
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("Parameter " + param + " of GAQL template " + name + " is null");
+            }
+            rendered.put(param, render(param, type, value));
+            return this;
+        }
+
+        public GaqlTemplate template() {
+            return GaqlTemplate.this;
+        }
+
+        /**
+         * @throws IllegalStateException if a parameter has not been bound
+         */
+        public String toQuery() {
+            StringBuilder query = new StringBuilder(literals.get(0));
+            for (int i = 0; i < paramNames.size(); i++) {
+                String value = rendered.get(paramNames.get(i));
+                if (value == null) {
+                    throw new IllegalStateException("Parameter " + paramNames.get(i) + " of GAQL template " + name + " is not bound");
+                }
+                query.append(value).append(literals.get(i + 1));
+            }
+            return query.toString();
+        }
+    }
+
+    private String render(String param, ParamType type, Object value) {
+        switch (type) {
+            case LONG:
+                if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+                    return String.valueOf(((Number) value).longValue());
+                }
+                break;
+            case STRING:
+                if (value instanceof String string) {
+                    return quote(string);
+                }
+                break;
+            case DATE:
+                if (value instanceof LocalDate date) {
+                    return "'" + date + "'";
+                }
+                break;
+            case DATETIME:
+                if (value instanceof LocalDateTime dateTime) {
+                    return "'" + dateTime.format(DATETIME_FORMAT) + "'";
+                }
+                break;
+            case STRING_LIST:
+                if (value instanceof Collection<?> values && !values.isEmpty()) {
+                    List<String> quoted = new ArrayList<>();
+                    for (Object element : values) {
+                        if (!(element instanceof String string)) {
+                            throw new IllegalArgumentException("Parameter " + param + " of GAQL template " + name + " must only hold strings");
+                        }
+                        quoted.add(quote(string));
+                    }
+                    return "(" + String.join(", ", quoted) + ")";
+                }
+                break;
+        }
+        throw new IllegalArgumentException("Parameter " + param + " of GAQL template " + name + " needs a " + type
+            + " value, not " + value.getClass().getSimpleName());
+    }
+
+    /**
+     * Single-quotes a string, backslash-escaping backslashes and both quote characters.
+     */
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '\'' || c == '"') {
+                quoted.append('\\');
+            }
+            quoted.append(c);
+        }
+        return quoted.append('\'').toString();
+    }
+
+    private static ParamType parseType(String name, String type) {
+        return switch (type) {
+            case "long" -> ParamType.LONG;
+            case "string" -> ParamType.STRING;
+            case "date" -> ParamType.DATE;
+            case "datetime" -> ParamType.DATETIME;
+            case "string_list" -> ParamType.STRING_LIST;
+            default -> throw new IllegalArgumentException("GAQL template " + name + " uses unknown parameter type '" + type + "'");
+        };
+    }
+
+    private static String fingerprintOf(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
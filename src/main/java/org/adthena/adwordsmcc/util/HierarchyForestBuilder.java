@@ -0,0 +1,196 @@
+package org.adthena.adwordsmcc.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assembles a nested forest of any depth from flat (id, parentId) edges in linear time.
+ * Edges are indexed in primitive arrays and a primitive-keyed map, children are grouped with a
+ * counting pass, and depths come from one breadth-first walk, so nothing is allocated per edge
+ * beyond the caller's node objects. Nodes whose parent is not part of the edge set become roots.
+ * Cycles are broken at one member of each cycle, and when an ID is given two different parents
+ * the first one wins; both cases are reported on the result.
+ *
+ * @param <N> The node type being assembled
+ */
+public final class HierarchyForestBuilder<N> {
+
+    /**
+     * Parent ID used for nodes that have no parent.
+     */
+    public static final long NO_PARENT = -1L;
+
+    /**
+     * Callback used to wire the caller's node objects together.
+     */
+    public interface NodeAssembler<N> {
+
+        void addChild(N parent, N child);
+
+        void setDepth(N node, int depth);
+    }
+
+    /**
+     * The assembled forest and any inconsistencies found in the edges.
+     */
+    public record Forest<N>(
+        List<N> roots,
+        int maxDepth,
+        List<Long> cycleBreaks,
+        List<Long> conflictingParents) {
+    }
+
+    private final LongIntHashMap index;
+    private long[] ids;
+    private long[] parentIds;
+    private Object[] payloads;
+    private int size;
+    private final List<Long> conflictingParents = new ArrayList<>();
+
+    public HierarchyForestBuilder() {
+        this(16);
+    }
+
+    public HierarchyForestBuilder(int expectedSize) {
+        int capacity = Math.max(4, expectedSize);
+        index = new LongIntHashMap(capacity);
+        ids = new long[capacity];
+        parentIds = new long[capacity];
+        payloads = new Object[capacity];
+    }
+
+    /**
+     * Adds a node and the edge to its parent. Repeating an ID with the same parent is ignored;
+     * repeating it with a different parent is recorded as a conflict and the first parent is kept.
+     *
+     * @param id       The node ID
+     * @param parentId The parent ID, or {@link #NO_PARENT}
+     * @param payload  The caller's node object
+     */
+    public void add(long id, long parentId, N payload) {
+        int existing = index.putIfAbsent(id, size, -1);
+        if (existing >= 0) {
+            if (parentIds[existing] != parentId) {
+                conflictingParents.add(id);
+            }
+            return;
+        }
+
+        if (size == ids.length) {
+            int capacity = size << 1;
+            ids = Arrays.copyOf(ids, capacity);
+            parentIds = Arrays.copyOf(parentIds, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+        ids[size] = id;
+        parentIds[size] = parentId;
+        payloads[size] = payload;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Links every node to its parent and assigns depths, preserving insertion order among
+     * siblings and among roots.
+     */
+    @SuppressWarnings("unchecked")
+    public Forest<N> build(NodeAssembler<N> assembler) {
+        int n = size;
+        int[] parent = new int[n];
+        int[] childStart = new int[n + 1];
+
+        for (int i = 0; i < n; i++) {
+            int p = parentIds[i] == NO_PARENT || parentIds[i] == ids[i] ? -1 : index.get(parentIds[i], -1);
+            parent[i] = p;
+            if (p >= 0) {
+                childStart[p + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            childStart[i + 1] += childStart[i];
+        }
+
+        int[] children = new int[childStart[n]];
+        int[] fill = Arrays.copyOf(childStart, n);
+        for (int i = 0; i < n; i++) {
+            if (parent[i] >= 0) {
+                children[fill[parent[i]]++] = i;
+            }
+        }
+
+        int[] depth = new int[n];
+        Arrays.fill(depth, -1);
+        int[] queue = new int[n];
+        List<N> roots = new ArrayList<>();
+        int maxDepth = 0;
+
+        for (int i = 0; i < n; i++) {
+            if (parent[i] < 0) {
+                roots.add((N) payloads[i]);
+                maxDepth = Math.max(maxDepth, walk(i, depth, queue, childStart, children, assembler));
+            }
+        }
+
+        // Anything not reached from a root sits on or below a cycle
+        List<Long> cycleBreaks = new ArrayList<>();
+        int[] walkMark = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (depth[i] >= 0) {
+                continue;
+            }
+            int member = findCycleMember(i, parent, walkMark, i + 1);
+            cycleBreaks.add(ids[member]);
+            parent[member] = -1;
+            roots.add((N) payloads[member]);
+            maxDepth = Math.max(maxDepth, walk(member, depth, queue, childStart, children, assembler));
+        }
+
+        return new Forest<>(roots, maxDepth, cycleBreaks, new ArrayList<>(conflictingParents));
+    }
+
+    private int walk(int root, int[] depth, int[] queue, int[] childStart, int[] children, NodeAssembler<N> assembler) {
+        int head = 0;
+        int tail = 0;
+        int maxDepth = 0;
+        depth[root] = 0;
+        assembler.setDepth(node(root), 0);
+        queue[tail++] = root;
+
+        while (head < tail) {
+            int current = queue[head++];
+            N currentNode = node(current);
+            for (int c = childStart[current]; c < childStart[current + 1]; c++) {
+                int child = children[c];
+                if (depth[child] >= 0) {
+                    continue;
+                }
+                depth[child] = depth[current] + 1;
+                maxDepth = Math.max(maxDepth, depth[child]);
+                N childNode = node(child);
+                assembler.setDepth(childNode, depth[child]);
+                assembler.addChild(currentNode, childNode);
+                queue[tail++] = child;
+            }
+        }
+
+        return maxDepth;
+    }
+
+    private int findCycleMember(int start, int[] parent, int[] walkMark, int stamp) {
+        int current = start;
+        while (walkMark[current] != stamp) {
+            walkMark[current] = stamp;
+            current = parent[current];
+        }
+        return current;
+    }
+
+    @SuppressWarnings("unchecked")
+    private N node(int i) {
+        return (N) payloads[i];
+    }
+}
@@ -0,0 +1,62 @@
+package org.adthena.adwordsmcc.util;
+
+import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spaces calls evenly so they stay under a rate across all threads. Each caller reserves the next
+ * free slot and waits until it comes round. A rate of zero or less disables pacing.
+ */
+public final class RatePacer {
+
+    private final long intervalNanos;
+    private long nextSlotNanos = System.nanoTime();
+
+    public RatePacer(double permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (1_000_000_000L / permitsPerSecond) : 0L;
+    }
+
+    /**
+     * Waits for the caller's slot. An interrupted caller gets no slot and must not make its call;
+     * its reservation is handed back when no later caller has reserved after it, and otherwise
+     * stays as a gap in the schedule.
+     *
+     * @throws InterruptedException if the thread is interrupted before or while waiting
+     */
+    public void acquire() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (intervalNanos == 0) {
+            return;
+        }
+
+        long slot;
+        synchronized (this) {
+            slot = Math.max(System.nanoTime(), nextSlotNanos);
+            nextSlotNanos = slot + intervalNanos;
+        }
+
+        long wait;
+        while ((wait = slot - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) {
+                release(slot);
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private synchronized void release(long slot) {
+        if (nextSlotNanos == slot + intervalNanos) {
+            nextSlotNanos = slot;
+        }
+    }
+
+    /**
+     * How long the given number of calls take at this rate when nothing else is queued.
+     */
+    public Duration durationFor(int permits) {
+        return Duration.ofNanos(intervalNanos * permits);
+    }
+}
@@ -0,0 +1,190 @@
+package org.adthena.adwordsmcc.util;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded in-memory cache of expensive snapshots with a TTL and stale-while-revalidate.
+ * A fresh entry is served directly. An entry past its TTL but within the stale window is served
+ * as-is while a single background refresh replaces it. Missing or fully expired entries are loaded
+ * on the caller's thread, with concurrent callers for the same key sharing one load.
+ * The least recently used entry is evicted once the entry limit is reached. Invalidating a key
+ * also detaches any load in flight for it, so later callers load afresh and the detached load's
+ * result is not cached.
+ *
+ * @param <K> The cache key type
+ * @param <V> The snapshot type
+ */
+public final class SnapshotCache<K, V> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotCache.class);
+
+    /**
+     * Loads a fresh snapshot.
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    private record Entry<V>(V value, long loadedAtMillis) {
+    }
+
+    private final String name;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final Map<K, Entry<V>> entries;
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService refreshExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param name       Name used in log messages
+     * @param ttl        How long an entry is served without refreshing
+     * @param staleFor   How long past the TTL an entry may still be served while it refreshes
+     * @param maxEntries The maximum number of entries kept
+     */
+    public SnapshotCache(String name, Duration ttl, Duration staleFor, int maxEntries) {
+        this.name = name;
+        this.ttlMillis = ttl.toMillis();
+        this.staleMillis = staleFor.toMillis();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached snapshot for the key, loading or refreshing it as needed.
+     */
+    public V get(K key, Loader<V> loader) throws IOException {
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        long age = entry != null ? System.currentTimeMillis() - entry.loadedAtMillis() : Long.MAX_VALUE;
+        if (age < ttlMillis) {
+            hits.incrementAndGet();
+            return entry.value();
+        }
+        if (age < ttlMillis + staleMillis) {
+            staleHits.incrementAndGet();
+            load(key, loader, true);
+            return entry.value();
+        }
+
+        misses.incrementAndGet();
+        return await(load(key, loader, false));
+    }
+
+    /**
+     * Drops the entry for the key so the next request loads a fresh snapshot.
+     */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * Drops every entry whose key matches, for callers that cache several variants per key.
+     */
+    public void invalidateIf(Predicate<K> matcher) {
+        synchronized (entries) {
+            entries.keySet().removeIf(matcher);
+            inFlight.keySet().removeIf(matcher);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            inFlight.clear();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("hits", hits.get());
+        stats.put("staleHits", staleHits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private CompletableFuture<V> load(K key, Loader<V> loader, boolean background) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        Runnable task = () -> {
+            try {
+                V value = loader.load();
+                synchronized (entries) {
+                    // Skipped if the key was invalidated while loading
+                    if (inFlight.get(key) == created) {
+                        entries.put(key, new Entry<>(value, System.currentTimeMillis()));
+                    }
+                }
+                inFlight.remove(key, created);
+                created.complete(value);
+            } catch (Throwable e) {
+                if (background) {
+                    logger.warn("Background refresh of {} cache entry failed: {}", name, e.getMessage());
+                }
+                inFlight.remove(key, created);
+                created.completeExceptionally(e);
+            }
+        };
+
+        if (background) {
+            refreshExecutor.execute(task);
+        } else {
+            task.run();
+        }
+        return created;
+    }
+
+    private V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + name + " snapshot", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Failed to load " + name + " snapshot: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
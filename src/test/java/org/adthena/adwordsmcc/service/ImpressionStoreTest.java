@@ -0,0 +1,97 @@
+package org.adthena.adwordsmcc.service;
+
+import org.adthena.adwordsmcc.util.LongLongHashMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImpressionStoreTest {
+
+    private static final String CUSTOMER_ID = "1234567890";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 3, 1);
+    private static final LocalDate LAST_DAY = LocalDate.of(2024, 3, 2);
+    private static final LocalDate TORN_DAY = LocalDate.of(2024, 3, 3);
+
+    @TempDir
+    Path directory;
+
+    private ImpressionStore newStore() {
+        ImpressionStore store = new ImpressionStore();
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "settlingDays", 3);
+        ReflectionTestUtils.setField(store, "refreshMinutes", 60L);
+        return store;
+    }
+
+    private static ImpressionStore.RangeFetcher fetcher(List<LocalDate[]> calls) {
+        return (from, to) -> {
+            calls.add(new LocalDate[] {from, to});
+            Map<LocalDate, LongLongHashMap> days = new HashMap<>();
+            for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+                LongLongHashMap countries = new LongLongHashMap();
+                countries.addTo(2250L, day.getDayOfMonth() * 10L);
+                countries.addTo(2826L, 1L);
+                days.put(day, countries);
+            }
+            return days;
+        };
+    }
+
+    @Test
+    void settledDaysAreServedFromTheFileAfterARestart() throws Exception {
+        List<LocalDate[]> calls = new ArrayList<>();
+        LongLongHashMap first = newStore().query(CUSTOMER_ID, FIRST_DAY, LAST_DAY, fetcher(calls));
+        assertEquals(1, calls.size());
+        assertEquals(30L, first.get(2250L, -1L));
+        assertEquals(2L, first.get(2826L, -1L));
+
+        LongLongHashMap reloaded = newStore().query(CUSTOMER_ID, FIRST_DAY, LAST_DAY, fetcher(calls));
+        assertEquals(1, calls.size());
+        assertEquals(30L, reloaded.get(2250L, -1L));
+        assertEquals(2L, reloaded.get(2826L, -1L));
+    }
+
+    @Test
+    void reloadTruncatesATornBlockAndRefetchesItsDay() throws Exception {
+        List<LocalDate[]> calls = new ArrayList<>();
+        newStore().query(CUSTOMER_ID, FIRST_DAY, LAST_DAY, fetcher(calls));
+        Path file = directory.resolve(CUSTOMER_ID + ".impressions");
+        long completeLength = Files.size(file);
+
+        // A day header announcing two country rows, cut off after the first
+        int epochDay = (int) TORN_DAY.toEpochDay();
+        ByteBuffer torn = ByteBuffer.allocate(2 * (Integer.BYTES + 2 * Long.BYTES) + Integer.BYTES);
+        torn.putInt(epochDay).putLong(-3L).putLong(System.currentTimeMillis());
+        torn.putInt(epochDay).putLong(2250L).putLong(999L);
+        torn.putInt(epochDay);
+        torn.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(torn);
+        }
+        assertTrue(Files.size(file) > completeLength);
+
+        calls.clear();
+        LongLongHashMap totals = newStore().query(CUSTOMER_ID, FIRST_DAY, TORN_DAY, fetcher(calls));
+
+        assertEquals(1, calls.size());
+        assertEquals(TORN_DAY, calls.get(0)[0]);
+        assertEquals(TORN_DAY, calls.get(0)[1]);
+        assertEquals(60L, totals.get(2250L, -1L));
+        assertEquals(3L, totals.get(2826L, -1L));
+        assertEquals(completeLength + 3 * (Integer.BYTES + 2 * Long.BYTES), Files.size(file));
+    }
+}
@@ -0,0 +1,121 @@
+package org.adthena.adwordsmcc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HierarchyForestBuilderTest {
+
+    private static final class Node {
+        private final long id;
+        private final List<Node> children = new ArrayList<>();
+        private int depth = -1;
+
+        private Node(long id) {
+            this.id = id;
+        }
+    }
+
+    private static final HierarchyForestBuilder.NodeAssembler<Node> ASSEMBLER = new HierarchyForestBuilder.NodeAssembler<>() {
+        @Override
+        public void addChild(Node parent, Node child) {
+            parent.children.add(child);
+        }
+
+        @Override
+        public void setDepth(Node node, int depth) {
+            node.depth = depth;
+        }
+    };
+
+    private static List<Long> ids(List<Node> nodes) {
+        List<Long> ids = new ArrayList<>();
+        for (Node node : nodes) {
+            ids.add(node.id);
+        }
+        return ids;
+    }
+
+    @Test
+    void nestsNodesInInsertionOrderWhateverOrderEdgesArrive() {
+        HierarchyForestBuilder<Node> builder = new HierarchyForestBuilder<>(2);
+        Node grandchild = new Node(3);
+        Node root = new Node(1);
+        Node second = new Node(4);
+        Node child = new Node(2);
+        builder.add(3, 2, grandchild);
+        builder.add(1, HierarchyForestBuilder.NO_PARENT, root);
+        builder.add(4, 1, second);
+        builder.add(2, 1, child);
+
+        HierarchyForestBuilder.Forest<Node> forest = builder.build(ASSEMBLER);
+
+        assertEquals(List.of(1L), ids(forest.roots()));
+        assertEquals(List.of(4L, 2L), ids(root.children));
+        assertEquals(List.of(3L), ids(child.children));
+        assertEquals(2, grandchild.depth);
+        assertEquals(2, forest.maxDepth());
+        assertTrue(forest.cycleBreaks().isEmpty());
+    }
+
+    @Test
+    void nodesWithUnknownOrOwnParentBecomeRoots() {
+        HierarchyForestBuilder<Node> builder = new HierarchyForestBuilder<>();
+        builder.add(1, 99, new Node(1));
+        builder.add(2, 2, new Node(2));
+
+        HierarchyForestBuilder.Forest<Node> forest = builder.build(ASSEMBLER);
+
+        assertEquals(List.of(1L, 2L), ids(forest.roots()));
+        assertEquals(0, forest.maxDepth());
+    }
+
+    @Test
+    void firstParentWinsAndConflictsAreReported() {
+        HierarchyForestBuilder<Node> builder = new HierarchyForestBuilder<>();
+        Node first = new Node(1);
+        Node second = new Node(2);
+        Node child = new Node(3);
+        builder.add(1, HierarchyForestBuilder.NO_PARENT, first);
+        builder.add(2, HierarchyForestBuilder.NO_PARENT, second);
+        builder.add(3, 1, child);
+        builder.add(3, 1, new Node(3));
+        builder.add(3, 2, new Node(3));
+
+        HierarchyForestBuilder.Forest<Node> forest = builder.build(ASSEMBLER);
+
+        assertEquals(3, builder.size());
+        assertEquals(List.of(3L), ids(first.children));
+        assertTrue(second.children.isEmpty());
+        assertEquals(List.of(3L), forest.conflictingParents());
+    }
+
+    @Test
+    void breaksEachCycleOnceAndKeepsItsMembersAndDescendants() {
+        HierarchyForestBuilder<Node> builder = new HierarchyForestBuilder<>();
+        Node a = new Node(1);
+        Node b = new Node(2);
+        Node c = new Node(3);
+        Node below = new Node(4);
+        builder.add(1, 3, a);
+        builder.add(2, 1, b);
+        builder.add(3, 2, c);
+        builder.add(4, 2, below);
+        builder.add(5, HierarchyForestBuilder.NO_PARENT, new Node(5));
+
+        HierarchyForestBuilder.Forest<Node> forest = builder.build(ASSEMBLER);
+
+        assertEquals(List.of(1L), forest.cycleBreaks());
+        assertEquals(List.of(5L, 1L), ids(forest.roots()));
+        assertEquals(List.of(2L), ids(a.children));
+        assertEquals(List.of(3L, 4L), ids(b.children));
+        assertTrue(c.children.isEmpty());
+        assertEquals(0, a.depth);
+        assertEquals(2, below.depth);
+        assertEquals(2, forest.maxDepth());
+    }
+}
@@ -0,0 +1,100 @@
+package org.adthena.adwordsmcc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongIntHashMapTest {
+
+    /**
+     * Keys that all hash to the same slot of an 8-slot table, the smallest the map allocates.
+     */
+    private static List<Long> collidingKeys(int count) {
+        List<Long> keys = new ArrayList<>();
+        int target = LongIntHashMap.mix(1L) & 7;
+        for (long key = 1; keys.size() < count; key++) {
+            if ((LongIntHashMap.mix(key) & 7) == target) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    void collidingKeysAreProbedPastEachOther() {
+        List<Long> keys = collidingKeys(5);
+        LongIntHashMap map = new LongIntHashMap(4);
+        for (int i = 0; i < 4; i++) {
+            map.put(keys.get(i), i);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, map.get(keys.get(i), -1));
+        }
+        assertEquals(-1, map.get(keys.get(4), -1));
+        assertFalse(map.containsKey(keys.get(4)));
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    void putReplacesAndPutIfAbsentKeeps() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(7L, 1);
+        map.put(7L, 2);
+        assertEquals(2, map.get(7L, -1));
+
+        assertEquals(2, map.putIfAbsent(7L, 3, -1));
+        assertEquals(-1, map.putIfAbsent(8L, 4, -1));
+        assertEquals(2, map.get(7L, -1));
+        assertEquals(4, map.get(8L, -1));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void zeroAndNegativeKeysAreOrdinaryKeys() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertFalse(map.containsKey(0L));
+        map.put(0L, 10);
+        map.put(-1L, 11);
+        map.put(Long.MIN_VALUE, 12);
+        map.put(Long.MAX_VALUE, 13);
+
+        assertEquals(10, map.get(0L, -1));
+        assertEquals(11, map.get(-1L, -1));
+        assertEquals(12, map.get(Long.MIN_VALUE, -1));
+        assertEquals(13, map.get(Long.MAX_VALUE, -1));
+    }
+
+    @Test
+    void keepsEveryEntryAcrossResizes() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            map.put(i * 31L, i);
+        }
+
+        assertEquals(count, map.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, map.get(i * 31L, -1));
+        }
+        assertEquals(-1, map.get(count * 31L, -1));
+    }
+
+    @Test
+    void clearEmptiesTheMap() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(1L, 1);
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(1L));
+        map.put(1L, 2);
+        assertTrue(map.containsKey(1L));
+        assertEquals(2, map.get(1L, -1));
+    }
+}
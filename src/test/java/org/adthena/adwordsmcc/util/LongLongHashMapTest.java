@@ -0,0 +1,79 @@
+package org.adthena.adwordsmcc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LongLongHashMapTest {
+
+    @Test
+    void addToSumsPerKey() {
+        LongLongHashMap map = new LongLongHashMap();
+        assertEquals(5L, map.addTo(2250L, 5L));
+        assertEquals(12L, map.addTo(2250L, 7L));
+        map.addTo(2826L, 3L);
+
+        assertEquals(12L, map.get(2250L, -1L));
+        assertEquals(3L, map.get(2826L, -1L));
+        assertEquals(-1L, map.get(2840L, -1L));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void collidingKeysAreProbedPastEachOther() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        int target = LongIntHashMap.mix(1L) & 7;
+        long missing = 0;
+        int added = 0;
+        for (long key = 1; added < 5; key++) {
+            if ((LongIntHashMap.mix(key) & 7) != target) {
+                continue;
+            }
+            if (added < 4) {
+                map.addTo(key, key);
+            } else {
+                missing = key;
+            }
+            added++;
+        }
+
+        assertEquals(4, map.size());
+        assertEquals(-1L, map.get(missing, -1L));
+        map.forEach((key, value) -> assertEquals(key, value));
+    }
+
+    @Test
+    void keepsEveryEntryAcrossResizes() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            map.addTo(i, i);
+            map.addTo(i, 1L);
+        }
+
+        assertEquals(count, map.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1L, map.get(i, -1L));
+        }
+        assertEquals(-1L, map.get(count, -1L));
+    }
+
+    @Test
+    void addAllMergesAndForEachVisitsEveryEntry() {
+        LongLongHashMap first = new LongLongHashMap();
+        first.addTo(0L, 1L);
+        first.addTo(1L, 2L);
+        LongLongHashMap second = new LongLongHashMap();
+        second.addTo(1L, 10L);
+        second.addTo(-5L, 20L);
+
+        first.addAll(second);
+
+        Map<Long, Long> seen = new HashMap<>();
+        first.forEach(seen::put);
+        assertEquals(Map.of(0L, 1L, 1L, 12L, -5L, 20L), seen);
+    }
+}